@@ -22,6 +22,8 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.inputmethod.InputMethodManager;
 
+import com.omelchenkoaleks.addressbook.data.ContactRecord;
+import com.omelchenkoaleks.addressbook.data.ContactWriteQueue;
 import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
 
 /**
@@ -193,37 +195,46 @@ public class AddEditFragment extends Fragment
         contentValues.put(Contact.COLUMN_ZIP,
                 zipTextInputLayout.getEditText().getText().toString());
 
+        // Запись выполняется в фоновом потоке очередью ContactWriteQueue.
+        ContactWriteQueue writeQueue = ContactWriteQueue.getInstance(getActivity());
+        // Ссылка сохраняется: к моменту завершения записи фрагмент может быть отсоединен.
+        final CoordinatorLayout snackbarLayout = coordinatorLayout;
+
         if (addingNewContact) {
-            // Использовать объект ContentResolver активности для вызова
-            // insert для объекта AddressBookContentProvider.
-            Uri newContactUri = getActivity().getContentResolver().insert(
-                    Contact.CONTENT_URI, contentValues);
-
-            if (newContactUri != null) {
-                Snackbar.make(coordinatorLayout,
-                        R.string.contact_added,
-                        Snackbar.LENGTH_LONG).show();
-                listener.onAddEditCompleted(newContactUri);
-            } else {
-                Snackbar.make(coordinatorLayout,
-                        R.string.contact_not_added,
-                        Snackbar.LENGTH_LONG).show();
-            }
+            // Uri нового контакта известен только после вставки,
+            // поэтому MainActivity оповещается по ее завершении.
+            writeQueue.insert(contentValues, new ContactWriteQueue.Callback() {
+                @Override
+                public void onWriteCompleted(Uri newContactUri, int affectedRows) {
+                    if (newContactUri != null) {
+                        Snackbar.make(snackbarLayout,
+                                R.string.contact_added,
+                                Snackbar.LENGTH_LONG).show();
+                        if (listener != null)
+                            listener.onAddEditCompleted(newContactUri);
+                    } else {
+                        Snackbar.make(snackbarLayout,
+                                R.string.contact_not_added,
+                                Snackbar.LENGTH_LONG).show();
+                    }
+                }
+            });
         } else {
-            // Использовать объект ContentResolver активности для вызова
-            // update для объекта AddressBookContentProvider.
-            int updatedRows = getActivity().getContentResolver().update(
-                    contactUri, contentValues, null, null);
-
-            if (updatedRows > 0) {
-                listener.onAddEditCompleted(contactUri);
-                Snackbar.make(coordinatorLayout,
-                        R.string.contact_updated, Snackbar.LENGTH_LONG).show();
-            }
-            else {
-                Snackbar.make(coordinatorLayout,
-                        R.string.contact_not_updated, Snackbar.LENGTH_LONG).show();
-            }
+            writeQueue.update(contactUri, contentValues, new ContactWriteQueue.Callback() {
+                @Override
+                public void onWriteCompleted(Uri updatedContactUri, int affectedRows) {
+                    if (affectedRows == 0) {
+                        Snackbar.make(snackbarLayout,
+                                R.string.contact_not_updated, Snackbar.LENGTH_LONG).show();
+                    }
+                }
+            });
+
+            // Изменение отображается сразу, не дожидаясь записи в базу данных:
+            // загрузчики перечитают контакт, когда провайдер оповестит об изменении.
+            listener.onAddEditCompleted(contactUri);
+            Snackbar.make(coordinatorLayout,
+                    R.string.contact_updated, Snackbar.LENGTH_LONG).show();
         }
     }
 
@@ -251,30 +262,16 @@ public class AddEditFragment extends Fragment
     public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor data) {
         // Если контакт существует в базе данных, вывести его информацию.
         if (data != null && data.moveToFirst()) {
-            // Получение индекса столбца для каждого элемента данных.
-            int nameIndex = data.getColumnIndex(Contact.COLUMN_NAME);
-            int phoneIndex = data.getColumnIndex(Contact.COLUMN_PHONE);
-            int emailIndex = data.getColumnIndex(Contact.COLUMN_EMAIL);
-            int streetIndex = data.getColumnIndex(Contact.COLUMN_STREET);
-            int cityIndex = data.getColumnIndex(Contact.COLUMN_CITY);
-            int stateIndex = data.getColumnIndex(Contact.COLUMN_STATE);
-            int zipIndex = data.getColumnIndex(Contact.COLUMN_ZIP);
+            ContactRecord contact = ContactRecord.fromCursor(data);
 
             // Заполнение компонентов EditText полученными данным.
-            nameTextInputLayout.getEditText().setText(
-                    data.getString(nameIndex));
-            phoneTextInputLayout.getEditText().setText(
-                    data.getString(phoneIndex));
-            emailTextInputLayout.getEditText().setText(
-                    data.getString(emailIndex));
-            streetTextInputLayout.getEditText().setText(
-                    data.getString(streetIndex));
-            cityTextInputLayout.getEditText().setText(
-                    data.getString(cityIndex));
-            stateTextInputLayout.getEditText().setText(
-                    data.getString(stateIndex));
-            zipTextInputLayout.getEditText().setText(
-                    data.getString(zipIndex));
+            nameTextInputLayout.getEditText().setText(contact.getName());
+            phoneTextInputLayout.getEditText().setText(contact.getPhone());
+            emailTextInputLayout.getEditText().setText(contact.getEmail());
+            streetTextInputLayout.getEditText().setText(contact.getStreet());
+            cityTextInputLayout.getEditText().setText(contact.getCity());
+            stateTextInputLayout.getEditText().setText(contact.getState());
+            zipTextInputLayout.getEditText().setText(contact.getZip());
 
             updateSaveButtonFAB();
         }
@@ -0,0 +1,121 @@
+package com.omelchenkoaleks.addressbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Снимок начала списка контактов для мгновенного отображения при холодном старте.
+ * Файл содержит общее количество контактов и первые ROWS пар (_id, имя) в
+ * порядке списка. Пока ContactsPager загружает данные из провайдера, первый
+ * экран списка строится по снимку, отображенному в память.
+ * Формат (big-endian): MAGIC, VERSION, общее количество, количество строк,
+ * затем для каждой строки _id (long), длина имени в байтах (int, -1 для null)
+ * и имя в UTF-8.
+ */
+final class ContactListSnapshot {
+
+    // Имя файла снимка в каталоге getFilesDir().
+    static final String FILE_NAME = "contacts_list.snapshot";
+
+    // Количество строк в снимке - примерно два экрана списка.
+    static final int ROWS = 2 * ContactsPager.PAGE_SIZE;
+
+    private static final int MAGIC = 0x41424c53;
+    private static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Общее количество контактов на момент записи снимка.
+    final int totalCount;
+
+    // Первые строки списка.
+    final ContactsPager.Page rows;
+
+    private ContactListSnapshot(int totalCount, ContactsPager.Page rows) {
+        this.totalCount = totalCount;
+        this.rows = rows;
+    }
+
+    // Читает снимок, отображая файл в память (выполняется в фоновом потоке).
+    // Возвращает null, если снимка нет или он поврежден.
+    static ContactListSnapshot read(File file) {
+        if (!file.exists())
+            return null;
+
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                return read(input.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, 0, input.length()));
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // Поврежденный снимок просто не используется.
+            return null;
+        }
+    }
+
+    // Разбирает содержимое файла снимка; null, если формат не совпадает.
+    private static ContactListSnapshot read(MappedByteBuffer buffer) {
+
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+            return null;
+
+        int totalCount = buffer.getInt();
+        int size = buffer.getInt();
+        long[] ids = new long[size];
+        String[] names = new String[size];
+
+        for (int i = 0; i < size; i++) {
+            ids[i] = buffer.getLong();
+            int length = buffer.getInt();
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                names[i] = new String(bytes, UTF_8);
+            }
+        }
+        return new ContactListSnapshot(totalCount, new ContactsPager.Page(ids, names, null));
+    }
+
+    // Записывает снимок атомарно (выполняется в фоновом потоке): во временный
+    // файл, затем переименование.
+    static void write(File file, int totalCount, ContactsPager.Page rows) throws IOException {
+        byte[][] names = new byte[rows.size()][];
+        int length = 16;
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = rows.names[i] != null ? rows.names[i].getBytes(UTF_8) : null;
+            length += 12 + (names[i] != null ? names[i].length : 0);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(totalCount).putInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            buffer.putLong(rows.ids[i]);
+            if (names[i] != null)
+                buffer.putInt(names[i].length).put(names[i]);
+            else
+                buffer.putInt(-1);
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(temporary);
+        try {
+            output.write(buffer.array());
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!temporary.renameTo(file))
+            throw new IOException("Cannot replace " + file);
+    }
+}
@@ -0,0 +1,200 @@
+package com.omelchenkoaleks.addressbook;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Поиск контактов по мере ввода строки запроса.
+ * Запрос выполняется через DEBOUNCE_MS после последнего изменения строки,
+ * поэтому быстрый ввод не запускает запрос на каждый символ. Новая строка
+ * отменяет выполняющийся запрос через CancellationSignal: SQLite прерывает
+ * запрос, и поток сразу переходит к следующему.
+ * Сначала загружаются первые FIRST_RESULTS совпадений и сразу отображаются,
+ * затем, если совпадений больше, - весь результат.
+ */
+public class ContactSearchController {
+
+    /**
+     * Интерфейс реализуется ContactsFragment для отображения результатов.
+     */
+    public interface Callback {
+
+        // Вызывается в главном потоке с найденными контактами; complete = false,
+        // пока загружены только первые совпадения.
+        void onSearchResults(String query, long[] ids, String[] names, boolean complete);
+    }
+
+    // Пауза ввода, после которой выполняется запрос.
+    static final long DEBOUNCE_MS = 150;
+
+    // Количество совпадений, которые отображаются до загрузки всего результата.
+    static final int FIRST_RESULTS = 30;
+
+    private final ContentResolver contentResolver;
+    private final Callback callback;
+
+    // Запросы выполняются последовательно в одном фоновом потоке.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Строка запроса.
+    private String query = "";
+
+    // Отмена выполняющегося запроса или null.
+    private CancellationSignal cancellationSignal;
+
+    // Увеличивается при каждом изменении строки, чтобы отбросить результаты
+    // устаревших запросов, которые успели завершиться до отмены.
+    private int generation;
+
+    private final Runnable startSearch = new Runnable() {
+        @Override
+        public void run() {
+            search(query);
+        }
+    };
+
+    // Конструктор.
+    public ContactSearchController(ContentResolver contentResolver, Callback callback) {
+        this.contentResolver = contentResolver;
+        this.callback = callback;
+    }
+
+    // Вызывается при каждом изменении строки запроса. Пустая строка только
+    // отменяет поиск.
+    public void setQuery(String newQuery) {
+        String trimmed = newQuery != null ? newQuery.trim() : "";
+        if (trimmed.equals(query))
+            return;
+
+        cancel();
+        query = trimmed;
+
+        if (!query.isEmpty())
+            mainHandler.postDelayed(startSearch, DEBOUNCE_MS);
+    }
+
+    // Отменяет отложенный и выполняющийся запросы; результаты не доставляются.
+    public void cancel() {
+        generation++;
+        mainHandler.removeCallbacks(startSearch);
+
+        if (cancellationSignal != null) {
+            cancellationSignal.cancel();
+            cancellationSignal = null;
+        }
+    }
+
+    // Повторяет текущий запрос без паузы после изменения контактов.
+    public void refresh() {
+        if (query.isEmpty())
+            return;
+
+        cancel();
+        search(query);
+    }
+
+    // Отменяет запросы и освобождает фоновый поток, когда список больше
+    // не отображается (ContactsFragment.onDestroyView).
+    public void close() {
+        cancel();
+        executor.shutdown();
+    }
+
+    // Запускает запрос в фоновом потоке (вызывается в главном потоке).
+    private void search(final String searchQuery) {
+        if (executor.isShutdown())
+            return;
+
+        final CancellationSignal signal = new CancellationSignal();
+        final int searchGeneration = generation;
+        cancellationSignal = signal;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (signal.isCanceled())
+                    return;
+
+                // Первые совпадения - запрос с LIMIT: SQLite хранит при сортировке
+                // только FIRST_RESULTS строк, и в окно курсора копируются только они.
+                Result first = query(Contact.buildSearchUri(searchQuery, FIRST_RESULTS), signal);
+                if (first == null)
+                    return;
+
+                boolean complete = first.ids.length < FIRST_RESULTS;
+                deliver(searchGeneration, searchQuery, first, complete);
+                if (complete)
+                    return;
+
+                Result all = query(Contact.buildSearchUri(searchQuery), signal);
+                if (all != null)
+                    deliver(searchGeneration, searchQuery, all, true);
+            }
+        });
+    }
+
+    // Найденные контакты.
+    private static final class Result {
+        final long[] ids;
+        final String[] names;
+
+        Result(long[] ids, String[] names) {
+            this.ids = ids;
+            this.names = names;
+        }
+    }
+
+    // Выполняет запрос (в фоновом потоке); null, если запрос отменен.
+    private Result query(Uri searchUri, CancellationSignal signal) {
+        try {
+            Cursor cursor = ContentResolverCompat.query(contentResolver, searchUri,
+                    Contact.LIST_PROJECTION, null, null, null, signal);
+            if (cursor == null)
+                return null;
+
+            try {
+                long[] ids = new long[cursor.getCount()];
+                String[] names = new String[ids.length];
+
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    ids[i] = cursor.getLong(Contact.LIST_INDEX_ID);
+                    names[i] = cursor.getString(Contact.LIST_INDEX_NAME);
+                }
+                return new Result(ids, names);
+            } finally {
+                cursor.close();
+            }
+        } catch (OperationCanceledException e) {
+            return null;
+        }
+    }
+
+    // Передает результат Callback в главном потоке, если строка запроса
+    // с тех пор не изменилась.
+    private void deliver(final int searchGeneration, final String searchQuery,
+                         final Result result, final boolean complete) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (searchGeneration != generation)
+                    return;
+
+                if (complete)
+                    cancellationSignal = null;
+                callback.onSearchResults(searchQuery, result.ids, result.names, complete);
+            }
+        });
+    }
+}
@@ -0,0 +1,65 @@
+package com.omelchenkoaleks.addressbook;
+
+import android.database.Cursor;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Алфавитный указатель отсортированного списка контактов: первая буква имени
+ * и позиция первого контакта на эту букву.
+ * Строится по запросу contacts/sections, который читает готовые счетчики
+ * разделов: провайдер обновляет их при вставке, удалении и переименовании
+ * контакта, поэтому запрос не проходит по всем контактам. Переход к разделу
+ * выполняется за O(1), а поиск раздела позиции - двоичным поиском.
+ */
+final class ContactSections {
+
+    // Указатель пустого списка.
+    static final ContactSections EMPTY = new ContactSections(new String[0], new int[0]);
+
+    private final String[] labels;
+    private final int[] positions;
+
+    private ContactSections(String[] labels, int[] positions) {
+        this.labels = labels;
+        this.positions = positions;
+    }
+
+    // Строит указатель по результату запроса Contact.SECTIONS_URI.
+    static ContactSections fromCursor(Cursor cursor) {
+        String[] labels = new String[cursor.getCount()];
+        int[] positions = new int[labels.length];
+        int position = 0;
+
+        for (int i = 0; cursor.moveToNext(); i++) {
+            String label = cursor.getString(Contact.SECTION_INDEX_LABEL);
+            // Контакты без имени отображаются в разделе "#".
+            labels[i] = label != null && !label.isEmpty() ?
+                    label.toUpperCase(Locale.getDefault()) : "#";
+            positions[i] = position;
+            position += cursor.getInt(Contact.SECTION_INDEX_COUNT);
+        }
+        return new ContactSections(labels, positions);
+    }
+
+    // Буквы разделов в порядке списка.
+    String[] getLabels() {
+        return labels;
+    }
+
+    // Позиция первого контакта раздела.
+    int getPositionForSection(int section) {
+        if (positions.length == 0)
+            return 0;
+        return positions[Math.max(0, Math.min(section, positions.length - 1))];
+    }
+
+    // Раздел, к которому относится позиция.
+    int getSectionForPosition(int position) {
+        int index = Arrays.binarySearch(positions, position);
+        return Math.max(0, index >= 0 ? index : -index - 2);
+    }
+}
@@ -1,20 +1,31 @@
 package com.omelchenkoaleks.addressbook;
 
-import android.database.Cursor;
+import android.content.ContentResolver;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
 
+import com.omelchenkoaleks.addressbook.data.ContactPrefetcher;
 import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
 
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Поставляет данные компоненту RecyclerView класса ContactsFragment.
+ * Контакты загружаются постранично объектом ContactsPager по мере прокрутки списка.
+ * Долгое нажатие на контакт включает режим выбора нескольких контактов.
+ * Полные записи контактов, строки которых отображаются, заранее загружаются
+ * ContactPrefetcher, чтобы DetailFragment открывался без ожидания загрузки.
  */
-public class ContactsAdapter extends RecyclerView.Adapter<ContactsAdapter.ViewHolder> {
+public class ContactsAdapter extends RecyclerView.Adapter<ContactsAdapter.ViewHolder>
+        implements ContactsPager.Callback, SectionIndexer {
 
     /**
      * Интерфейс реализуется ContactsFragment для обработки
@@ -22,6 +33,9 @@ public class ContactsAdapter extends RecyclerView.Adapter<ContactsAdapter.ViewHo
      */
     public interface ContactClickListener {
         void onClick(Uri contactUri);
+
+        // Вызывается при изменении набора выбранных контактов.
+        void onSelectionChanged(int selectedCount);
     }
 
     /**
@@ -45,7 +59,29 @@ public class ContactsAdapter extends RecyclerView.Adapter<ContactsAdapter.ViewHo
                     new View.OnClickListener() {
                         // Выполняется при щелчке на контакте в ViewHolder @Override
                         public void onClick(View view) {
-                            clickListener.onClick(Contact.buildContactUri(rowID));
+                            // Строка, страница которой еще не загружена, не выбирается.
+                            if (rowID < 0)
+                                return;
+
+                            // В режиме выбора касание выбирает контакт.
+                            if (!selectedIds.isEmpty())
+                                toggleSelection(rowID, getAdapterPosition());
+                            else
+                                clickListener.onClick(Contact.buildContactUri(rowID));
+                        }
+                    }
+            );
+
+            // Долгое нажатие выбирает контакт.
+            itemView.setOnLongClickListener(
+                    new View.OnLongClickListener() {
+                        @Override
+                        public boolean onLongClick(View view) {
+                            if (rowID < 0)
+                                return false;
+
+                            toggleSelection(rowID, getAdapterPosition());
+                            return true;
                         }
                     }
             );
@@ -58,11 +94,19 @@ public class ContactsAdapter extends RecyclerView.Adapter<ContactsAdapter.ViewHo
     }
 
     // Переменные экземпляров ContactsAdapter.
-    private Cursor cursor = null;
+    private final ContactsPager pager;
     private final ContactClickListener clickListener;
+    private final ContactPrefetcher prefetcher;
+
+    // Идентификаторы выбранных контактов.
+    private final Set<Long> selectedIds = new HashSet<>();
 
-    // Конструктор.
-    public ContactsAdapter(ContactClickListener clickListener) {
+    // Конструктор; snapshotFile - файл снимка начала списка (см. ContactListSnapshot).
+    public ContactsAdapter(ContentResolver contentResolver, File snapshotFile,
+                           ContactPrefetcher prefetcher,
+                           ContactClickListener clickListener) {
+        this.pager = new ContactsPager(contentResolver, snapshotFile, this);
+        this.prefetcher = prefetcher;
         this.clickListener = clickListener;
     }
 
@@ -75,6 +119,7 @@ public class ContactsAdapter extends RecyclerView.Adapter<ContactsAdapter.ViewHo
         // Заполнение макета android.R.layout.simple_list_item_1.
         View view = LayoutInflater.from(parent.getContext())
                 .inflate( android.R.layout.simple_list_item_1, parent, false);
+        view.setBackgroundResource(R.drawable.contact_item_background);
 
         // ViewHolder текущего элемента.
         return new ViewHolder(view);
@@ -83,20 +128,114 @@ public class ContactsAdapter extends RecyclerView.Adapter<ContactsAdapter.ViewHo
     // Назначает текст элемента списка.
     @Override
     public void onBindViewHolder(@NonNull ContactsAdapter.ViewHolder holder, int position) {
-        cursor.moveToPosition(position);
-        holder.setRowID(cursor.getLong(cursor.getColumnIndex(Contact._ID)));
-        holder.textView.setText(cursor.getString(cursor.getColumnIndex( Contact.COLUMN_NAME)));
+        // Загрузка страницы позиции и соседних страниц, если они еще не в памяти.
+        pager.loadAround(position);
+
+        // Пока страница загружается, строка остается пустой.
+        long rowID = pager.getId(position);
+        holder.setRowID(rowID);
+        holder.textView.setText(pager.getName(position));
+        holder.itemView.setActivated(selectedIds.contains(rowID));
+
+        // RecyclerView привязывает строки на экране и строки, которые вот-вот
+        // на нем появятся, - их записи загружаются заранее.
+        if (rowID >= 0)
+            prefetcher.prefetch(rowID);
     }
 
     // Возвращает количество элементов, предоставляемых адаптером.
     @Override
     public int getItemCount() {
-        return (cursor != null) ? cursor.getCount() : 0;
+        return pager.getCount();
+    }
+
+    // Буквы алфавитного указателя.
+    @Override
+    public Object[] getSections() {
+        return pager.getSections().getLabels();
+    }
+
+    // Позиция первого контакта на букву section.
+    @Override
+    public int getPositionForSection(int section) {
+        return pager.getSections().getPositionForSection(section);
+    }
+
+    // Буква, к которой относится позиция.
+    @Override
+    public int getSectionForPosition(int position) {
+        return pager.getSections().getSectionForPosition(position);
+    }
+
+    // Идентификаторы выбранных контактов.
+    public long[] getSelectedIds() {
+        long[] ids = new long[selectedIds.size()];
+        int i = 0;
+        for (long id : selectedIds)
+            ids[i++] = id;
+        return ids;
+    }
+
+    // Отменяет выбор всех контактов.
+    public void clearSelection() {
+        if (selectedIds.isEmpty())
+            return;
+
+        selectedIds.clear();
+        notifyDataSetChanged();
+        clickListener.onSelectionChanged(0);
     }
 
-    // Текущий объект Cursor адаптера заменяется новым.
-    public void swapCursor(Cursor cursor) {
-        this.cursor = cursor;
+    // Выбирает контакт или отменяет его выбор.
+    private void toggleSelection(long rowID, int position) {
+        if (!selectedIds.remove(rowID))
+            selectedIds.add(rowID);
+
+        if (position != RecyclerView.NO_POSITION)
+            notifyItemChanged(position);
+        clickListener.onSelectionChanged(selectedIds.size());
+    }
+
+    // Перезагрузка списка после изменения таблицы contacts.
+    public void refresh() {
+        pager.refresh();
+    }
+
+    // Освобождает фоновый поток списка при уничтожении представления.
+    public void close() {
+        pager.close();
+    }
+
+    // Вызывается ContactsPager при первой загрузке списка.
+    @Override
+    public void onCountChanged() {
         notifyDataSetChanged();
     }
+
+    // Вызывается ContactsPager после загрузки страницы.
+    @Override
+    public void onRangeLoaded(int start, int count) {
+        notifyItemRangeChanged(start, count);
+    }
+
+    // Следующие методы получают изменения отдельных строк после обновления таблицы.
+    @Override
+    public void onInserted(int position, int count) {
+        notifyItemRangeInserted(position, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        notifyItemRangeRemoved(position, count);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        notifyItemMoved(fromPosition, toPosition);
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+        notifyItemRangeChanged(position, count, payload);
+    }
 }
@@ -1,46 +1,115 @@
 package com.omelchenkoaleks.addressbook;
 
 import android.content.Context;
-import android.database.Cursor;
+import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.view.ActionMode;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 
+import com.omelchenkoaleks.addressbook.data.ContactPrefetcher;
+import com.omelchenkoaleks.addressbook.data.ContactWriteQueue;
 import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
 
+import java.io.File;
+
 /**
  * Класс управляет списком RecyclerView и кнопкой FloatingActionButton для добавления контактов.
  * На телефоне это первый фрагмент, отображаемый MainActivity.
  * На планшете MainActivity всегда отображает этот фрагмент.
  * Вложенный интерфейс ContactsFragment определяет методы обратного вызова,
  * реализуемые MainActivity, чтобы активность могла реагировать на выбор или добавление контакта.
+ * Контакты загружаются постранично адаптером, а фрагмент следит за изменениями
+ * в AddressBookContentProvider и перезагружает список. Пока в строке поиска
+ * есть запрос, список показывает результаты ContactSearchController.
  */
-
-// Реализуем интерфейс, чтобы этот фрагмент мог реагировать на вызовы методов LoaderManager,
-// создать Loader и обработать результаты, возвращаемые AddressBookContentProvider.
-public class ContactsFragment extends Fragment
-        implements LoaderManager.LoaderCallbacks<Cursor> {
-
-    // Идентификатор Loader.
-    private static final int СONTACTS_LOADER = 0;
+public class ContactsFragment extends Fragment {
 
     // Сообщает MainActivity о выборе контакта.
-    private ContactsFragment listener;
+    private ContactsFragmentListener listener;
 
     // Адаптер для recyclerView.
     private ContactsAdapter contactsAdapter;
 
+    // Поиск по мере ввода и адаптер его результатов.
+    private ContactSearchController searchController;
+    private SearchResultsAdapter searchAdapter;
+
+    private RecyclerView recyclerView;
+    private SectionIndexBar sectionIndexBar;
+
+    // Задержка перезагрузки списка после оповещения об изменении: серия
+    // оповещений за это время вызывает одну перезагрузку.
+    private static final long REFRESH_DELAY_MS = 200;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Runnable refreshContactList = new Runnable() {
+        @Override
+        public void run() {
+            updateContactList();
+        }
+    };
+
+    // Перезагружает список при изменении таблицы contacts или любого контакта.
+    private final ContentObserver contactsObserver = new ContentObserver(handler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            handler.removeCallbacks(refreshContactList);
+            handler.postDelayed(refreshContactList, REFRESH_DELAY_MS);
+        }
+    };
+
+    // Режим выбора нескольких контактов или null.
+    private ActionMode selectionMode;
+
+    // Панель действий режима выбора: удаление выбранных контактов.
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.contacts_selection_menu, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            if (item.getItemId() != R.id.action_delete)
+                return false;
+
+            deleteContacts(contactsAdapter.getSelectedIds());
+            mode.finish();
+            return true;
+        }
+
+        // Закрытие панели отменяет выбор.
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            selectionMode = null;
+            contactsAdapter.clearSelection();
+        }
+    };
+
     // Метод обратного вызова, реализуемый MainActivity.
     public interface ContactsFragmentListener {
 
@@ -56,31 +125,82 @@ public class ContactsFragment extends Fragment
     public View onCreateView(@NonNull LayoutInflater inflater,
                              @Nullable ViewGroup container,
                              @Nullable Bundle savedInstanceState) {
-        return super.onCreateView(inflater, container, savedInstanceState);
-
         // У фрагмента есть команды меню.
         setHasOptionsMenu(true);
 
         // Заполнение GUI и получение ссылки на RecyclerView.
         View view = inflater.inflate(R.layout.fragment_contacts, container, false);
-        RecyclerView recyclerView = view.findViewById(R.id.recyclerView);
+        recyclerView = view.findViewById(R.id.recyclerView);
 
         // recyclerView выводит элементы в вертикальном списке.
         recyclerView.setLayoutManager(
                 new LinearLayoutManager(getActivity().getBaseContext()));
 
         // Создаем адаптер recyclerView и слушателя щелчков на элементах.
-        contactsAdapter = new ContactsAdapter(new ContactsAdapter.ContactClickListener() {
-            @Override
-            public void onClick(Uri contactUri) {
-                listener.onContactSelected(contactUri);
-            }
-        });
+        ContactsAdapter.ContactClickListener clickListener =
+                new ContactsAdapter.ContactClickListener() {
+                    @Override
+                    public void onClick(Uri contactUri) {
+                        listener.onContactSelected(contactUri);
+                    }
+
+                    @Override
+                    public void onSelectionChanged(int selectedCount) {
+                        updateSelectionMode(selectedCount);
+                    }
+                };
+        ContactPrefetcher prefetcher = ContactPrefetcher.getInstance(getActivity());
+        contactsAdapter = new ContactsAdapter(getActivity().getContentResolver(),
+                new File(getActivity().getFilesDir(), ContactListSnapshot.FILE_NAME),
+                prefetcher, clickListener);
+
+        // Результаты поиска отображаются по мере загрузки.
+        searchAdapter = new SearchResultsAdapter(prefetcher, clickListener);
+        searchController = new ContactSearchController(getActivity().getContentResolver(),
+                new ContactSearchController.Callback() {
+                    @Override
+                    public void onSearchResults(String query, long[] ids, String[] names,
+                                                boolean complete) {
+                        searchAdapter.setResults(ids, names);
+                        showSearchResults(true);
+                    }
+                });
 
 
         // Назначаем адаптер.
         recyclerView.setAdapter(contactsAdapter);
 
+        // Алфавитный указатель: касание буквы сразу переводит список к ее разделу.
+        final LinearLayoutManager layoutManager =
+                (LinearLayoutManager) recyclerView.getLayoutManager();
+        sectionIndexBar = view.findViewById(R.id.sectionIndexBar);
+        sectionIndexBar.setSectionIndexer(contactsAdapter);
+        sectionIndexBar.setOnSectionSelectedListener(
+                new SectionIndexBar.OnSectionSelectedListener() {
+                    @Override
+                    public void onSectionSelected(int section) {
+                        layoutManager.scrollToPositionWithOffset(
+                                contactsAdapter.getPositionForSection(section), 0);
+                    }
+                });
+        // Указатель перерисовывается после обновления списка.
+        contactsAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                sectionIndexBar.invalidate();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                sectionIndexBar.invalidate();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                sectionIndexBar.invalidate();
+            }
+        });
+
         // Присоединяем ItemDecorator для вывода разделителей.
         recyclerView.addItemDecoration(new ItemDivider(getContext()));
 
@@ -99,13 +219,52 @@ public class ContactsFragment extends Fragment
                     }
                 }
         );
+
+        return view;
+    }
+
+    // Отображение строки поиска.
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        super.onCreateOptionsMenu(menu, inflater);
+        inflater.inflate(R.menu.fragment_contacts_menu, menu);
+
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            // Каждое изменение строки передается контроллеру; пустая строка
+            // возвращает список всех контактов.
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                searchController.setQuery(newText);
+                if (newText.trim().isEmpty())
+                    showSearchResults(false);
+                return true;
+            }
+        });
+    }
+
+    // Переключает recyclerView между результатами поиска и списком всех контактов.
+    private void showSearchResults(boolean show) {
+        RecyclerView.Adapter adapter = show ? searchAdapter : contactsAdapter;
+        if (recyclerView.getAdapter() == adapter)
+            return;
+
+        if (!show)
+            searchAdapter.setResults(new long[0], new String[0]);
+        recyclerView.setAdapter(adapter);
+        sectionIndexBar.setVisibility(show ? View.GONE : View.VISIBLE);
     }
 
     // Присваивание ContactsFragment при присоединении фрагмента.
     @Override
     public void onAttach(Context context) {
         super.onAttach(context);
-        listener = (ContactsFragment) context;
+        listener = (ContactsFragmentListener) context;
     }
 
     // Удаление ContactsFragment при отсоединении фрагмента.
@@ -115,46 +274,92 @@ public class ContactsFragment extends Fragment
         listener = null;
     }
 
-    // Инициализация Loader при создании активности этого фрагмента.
+    // Загрузка списка и подписка на изменения при создании активности этого фрагмента.
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
-        getLoaderManager().initLoader(CONTACTS_LOADER, null, this);
-    }
+        getActivity().getContentResolver().registerContentObserver(
+                Contact.CONTENT_URI, true, contactsObserver);
+        contactsAdapter.refresh();
 
-    // Вызывается из MainActivity при обновлении базы данных другим фрагментом.
-    public void updateContactList() {
-        contactsAdapter.notifyDataSetChanged();
+        // Контакты, удаленные до завершения процесса, удаляются окончательно.
+        ContactWriteQueue.getInstance(getActivity()).purgeDeleted();
+        // Ключи сортировки пересчитываются, если язык изменился.
+        ContactWriteQueue.getInstance(getActivity()).updateSortKeys();
     }
 
-    // Вызывается LoaderManager для создания Loader.
-    @NonNull
+    // Отмена подписки на изменения и освобождение фоновых потоков
+    // при уничтожении представления.
     @Override
-    public Loader<Cursor> onCreateLoader(int i, @Nullable Bundle bundle) {
-        // Создание CursorLoader на основании аргумента id.
-        // В этом фрагменте только один объект Loader, и команда switch не нужна.
-        switch (id) {
-            case CONTACTS_LOADER:
-                return new CursorLoader(getActivity(),
-                        Contact.CONTENT_URI, // Uri таблицы contacts
-                        null, // все столбцы
-                        null, // все записы
-                        null, // без аргументов
-                        Contact.COLUMN_NAME + " COLLATE NOCASE ASC"); // сортировка
-            default:
-                return null;
+    public void onDestroyView() {
+        super.onDestroyView();
+        getActivity().getContentResolver().unregisterContentObserver(contactsObserver);
+        handler.removeCallbacks(refreshContactList);
+        contactsAdapter.close();
+        searchController.close();
+        if (selectionMode != null)
+            selectionMode.finish();
+    }
+
+    // Открывает, обновляет или закрывает панель режима выбора.
+    private void updateSelectionMode(int selectedCount) {
+        if (selectedCount == 0) {
+            if (selectionMode != null)
+                selectionMode.finish();
+            return;
         }
+
+        if (selectionMode == null)
+            selectionMode = ((AppCompatActivity) getActivity())
+                    .startSupportActionMode(selectionCallback);
+        if (selectionMode != null)
+            selectionMode.setTitle(getString(R.string.contacts_selected, selectedCount));
     }
 
-    // Вызывается LoaderManager при завершении загрузки.
-    @Override
-    public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor cursor) {
-        contactsAdapter.swapCursor(data);
+    // Удаляет контакты одной транзакцией и предлагает отменить удаление,
+    // пока контакты не удалены окончательно.
+    private void deleteContacts(final long[] ids) {
+        if (ids.length == 0)
+            return;
+
+        final ContactWriteQueue writeQueue = ContactWriteQueue.getInstance(getActivity());
+        writeQueue.delete(ids, new ContactWriteQueue.Callback() {
+            @Override
+            public void onWriteCompleted(Uri contactUri, int affectedRows) {
+                if (affectedRows == 0)
+                    return;
+
+                // Предложение отменить удаление отобразить негде.
+                if (getView() == null) {
+                    writeQueue.purge(ids);
+                    return;
+                }
+
+                // Контакты удаляются окончательно только после закрытия
+                // предложения, поэтому кнопка отмены всегда их восстанавливает.
+                Snackbar.make(getView(), getString(R.string.contacts_deleted, affectedRows),
+                        (int) Contact.UNDO_WINDOW_MS)
+                        .setAction(R.string.button_undo, new View.OnClickListener() {
+                            @Override
+                            public void onClick(View view) {
+                                writeQueue.restore(ids, null);
+                            }
+                        })
+                        .addCallback(new Snackbar.Callback() {
+                            @Override
+                            public void onDismissed(Snackbar snackbar, int event) {
+                                if (event != DISMISS_EVENT_ACTION)
+                                    writeQueue.purge(ids);
+                            }
+                        })
+                        .show();
+            }
+        });
     }
 
-    // Вызывается LoaderManager при сбросе Loader.
-    @Override
-    public void onLoaderReset(@NonNull Loader<Cursor> loader) {
-        contactsAdapter.swapCursor(null);
+    // Вызывается из MainActivity при обновлении базы данных другим фрагментом.
+    public void updateContactList() {
+        contactsAdapter.refresh();
+        searchController.refresh();
     }
 }
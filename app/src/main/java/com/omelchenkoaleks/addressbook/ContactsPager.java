@@ -0,0 +1,594 @@
+package com.omelchenkoaleks.addressbook;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.text.TextUtils;
+import android.support.v7.util.ListUpdateCallback;
+import android.util.SparseArray;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Постраничный источник данных для списка контактов.
+ * Вместо загрузки всей таблицы в один Cursor загружает страницы по PAGE_SIZE
+ * контактов в фоновом потоке, когда список прокручивается к ним.
+ * Страница запрашивается по ключу (sort_key, _id) соседней страницы в памяти:
+ * после последнего контакта предыдущей или перед первым контактом следующей,
+ * поэтому SQLite не пропускает строки через OFFSET. OFFSET используется только
+ * для позиции без загруженных соседей, например после перехода по алфавитному
+ * указателю. Обновление загружает окно страниц заново с ключа его первого
+ * контакта. Если до окна добавили или удалили контакты, позиции страниц
+ * сдвигаются; это обнаруживается при загрузке страницы перед ключом, и список
+ * загружается заново с начала.
+ * В памяти хранится не больше MAX_RETAINED_PAGES страниц: дальние от текущей
+ * позиции страницы удаляются и загружаются снова при возвращении к ним.
+ * При создании первые страницы и количество контактов берутся из снимка
+ * ContactListSnapshot, поэтому первый экран отображается до первого запроса;
+ * снимок перезаписывается после обновления, если начало списка изменилось.
+ */
+public class ContactsPager {
+
+    /**
+     * Интерфейс реализуется ContactsAdapter для обновления списка
+     * после загрузки данных. Методы ListUpdateCallback получают
+     * отдельные изменения строк после обновления таблицы.
+     */
+    public interface Callback extends ListUpdateCallback {
+
+        // Вызывается, когда список нужно перерисовать целиком (первая загрузка).
+        void onCountChanged();
+
+        // Вызывается после загрузки контактов в позициях [start, start + count).
+        void onRangeLoaded(int start, int count);
+    }
+
+    // Количество контактов на одной странице.
+    static final int PAGE_SIZE = 50;
+
+    // Если до края загруженных данных осталось меньше позиций, загружается соседняя страница.
+    static final int PREFETCH_DISTANCE = 20;
+
+    // Максимальное количество страниц, хранящихся в памяти.
+    static final int MAX_RETAINED_PAGES = 8;
+
+    // Одна загруженная страница: идентификаторы, имена и ключи сортировки
+    // контактов. Ключей нет (null) у страниц из снимка.
+    static final class Page {
+        final long[] ids;
+        final String[] names;
+        final String[] keys;
+
+        Page(long[] ids, String[] names, String[] keys) {
+            this.ids = ids;
+            this.names = names;
+            this.keys = keys;
+        }
+
+        int size() {
+            return ids.length;
+        }
+    }
+
+    private final ContentResolver contentResolver;
+    private final File snapshotFile;
+    private final Callback callback;
+
+    // Запросы выполняются последовательно в одном фоновом потоке,
+    // который освобождается методом close.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Загруженные страницы по номеру и номера загружаемых страниц.
+    private final SparseArray<Page> pages = new SparseArray<>();
+    private final Set<Integer> loadingPages = new HashSet<>();
+
+    // Общее количество контактов в таблице.
+    private int count;
+
+    // Алфавитный указатель списка.
+    private ContactSections sections = ContactSections.EMPTY;
+
+    // Увеличивается при каждом обновлении, чтобы отбросить результаты устаревших запросов.
+    private int generation;
+
+    // Номер страницы, к которой было последнее обращение.
+    private int lastAccessedPage;
+
+    // Вызван close: новые запросы не выполняются, результаты не доставляются.
+    private boolean closed;
+
+    // Содержимое файла снимка: количество контактов и строки
+    // (используются только в фоновом потоке).
+    private int snapshotCount;
+    private Page snapshotRows;
+
+    // Конструктор; snapshotFile - файл снимка начала списка или null.
+    public ContactsPager(ContentResolver contentResolver, File snapshotFile,
+                         Callback callback) {
+        this.contentResolver = contentResolver;
+        this.snapshotFile = snapshotFile;
+        this.callback = callback;
+
+        if (snapshotFile != null)
+            loadSnapshot();
+    }
+
+    // Читает снимок в фоновом потоке. Поток и главный поток выполняют задачи
+    // по порядку, поэтому снимок отображается раньше результата первого
+    // обновления, даже если refresh вызван сразу после конструктора, и
+    // обновление заменяет его страницами из таблицы.
+    private void loadSnapshot() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ContactListSnapshot snapshot = ContactListSnapshot.read(snapshotFile);
+                if (snapshot == null || snapshot.rows.size() > snapshot.totalCount)
+                    return;
+
+                snapshotCount = snapshot.totalCount;
+                snapshotRows = snapshot.rows;
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (closed)
+                            return;
+
+                        count = snapshot.totalCount;
+                        splitPages(0, snapshot.rows);
+                        callback.onCountChanged();
+                    }
+                });
+            }
+        });
+    }
+
+    // Количество контактов в списке.
+    public int getCount() {
+        return count;
+    }
+
+    // Алфавитный указатель, полученный при последнем обновлении.
+    public ContactSections getSections() {
+        return sections;
+    }
+
+    // Идентификатор контакта в позиции или -1, если страница еще не загружена.
+    public long getId(int position) {
+        Page page = pages.get(position / PAGE_SIZE);
+        int index = position % PAGE_SIZE;
+        return page != null && index < page.size() ? page.ids[index] : -1;
+    }
+
+    // Имя контакта в позиции или null, если страница еще не загружена.
+    public String getName(int position) {
+        Page page = pages.get(position / PAGE_SIZE);
+        int index = position % PAGE_SIZE;
+        return page != null && index < page.size() ? page.names[index] : null;
+    }
+
+    // Заново загружает количество контактов, алфавитный указатель и страницы,
+    // которые сейчас в памяти.
+    // Вызывается при изменении таблицы contacts. Старые и новые данные окна
+    // сравниваются DiffUtil в фоновом потоке, и список получает только события
+    // вставки, удаления, перемещения и изменения отдельных строк.
+    public void refresh() {
+        if (closed)
+            return;
+
+        final int refreshGeneration = ++generation;
+
+        // Непрерывное окно загруженных страниц вокруг последней отображенной.
+        int firstPage = lastAccessedPage;
+        int lastPage = lastAccessedPage;
+        while (pages.get(firstPage - 1) != null)
+            firstPage--;
+        while (pages.get(lastPage + 1) != null)
+            lastPage++;
+
+        final boolean initialLoad = pages.get(lastAccessedPage) == null;
+        final int windowStartPage = initialLoad ? 0 : firstPage;
+        final int windowPages = initialLoad ? 1 : lastPage - firstPage + 1;
+        final int oldCount = count;
+        final Page oldWindow = initialLoad ? null : joinPages(firstPage, lastPage);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int newCount = queryCount();
+                final ContactSections newSections = querySections();
+                final Page newWindow = queryPage(windowUri(windowStartPage, windowPages,
+                        oldWindow));
+                final DiffUtil.DiffResult diff = oldWindow != null && newWindow != null ?
+                        DiffUtil.calculateDiff(new WindowDiffCallback(oldWindow, newWindow)) :
+                        null;
+
+                if (newWindow != null)
+                    writeSnapshot(newCount, windowStartPage, newWindow);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (refreshGeneration != generation)
+                            return;
+
+                        pages.clear();
+                        loadingPages.clear();
+
+                        // Изменение количества строк за пределами окна - в конце окна.
+                        // Окно загружено с ключа его первого контакта, поэтому сюда
+                        // попадают и изменения перед окном. Если удалено больше строк,
+                        // чем было после окна, позиции окна устарели, и список
+                        // загружается заново с первой страницы.
+                        int windowStart = windowStartPage * PAGE_SIZE;
+                        int remainder = diff != null ? (newCount - newWindow.size()) -
+                                (oldCount - oldWindow.size()) : 0;
+                        if (diff != null &&
+                                -remainder > oldCount - windowStart - oldWindow.size()) {
+                            refresh();
+                            return;
+                        }
+
+                        count = newCount;
+                        sections = newSections;
+                        if (newWindow != null)
+                            splitPages(windowStartPage, newWindow);
+
+                        if (diff == null) {
+                            callback.onCountChanged();
+                            return;
+                        }
+
+                        // События окна сдвигаются на его начальную позицию.
+                        diff.dispatchUpdatesTo(new OffsetListUpdateCallback(windowStart));
+
+                        int afterWindow = windowStart + newWindow.size();
+                        if (remainder > 0)
+                            callback.onInserted(afterWindow, remainder);
+                        else if (remainder < 0)
+                            callback.onRemoved(afterWindow, -remainder);
+                    }
+                });
+            }
+        });
+    }
+
+    // Uri окна для обновления: с ключа первого контакта старого окна или,
+    // если окно начинается с первой страницы или ключа нет, по смещению.
+    private static Uri windowUri(int windowStartPage, int windowPages, Page oldWindow) {
+        int limit = windowPages * PAGE_SIZE;
+
+        if (windowStartPage > 0 && oldWindow.keys[0] != null)
+            return Contact.buildPageFromUri(oldWindow.keys[0], oldWindow.ids[0], limit);
+        return Contact.buildPageUri(windowStartPage * PAGE_SIZE, limit);
+    }
+
+    // Перезаписывает снимок начала списка (выполняется в фоновом потоке), если
+    // количество контактов или первые строки изменились.
+    // Если окно начинается с первой страницы и содержит достаточно строк,
+    // снимок строится из него без дополнительного запроса.
+    private void writeSnapshot(int newCount, int windowStartPage, Page window) {
+        if (snapshotFile == null)
+            return;
+
+        Page rows;
+        if (windowStartPage == 0 &&
+                (window.size() >= ContactListSnapshot.ROWS || window.size() == newCount)) {
+            int size = Math.min(window.size(), ContactListSnapshot.ROWS);
+            long[] ids = new long[size];
+            String[] names = new String[size];
+            System.arraycopy(window.ids, 0, ids, 0, size);
+            System.arraycopy(window.names, 0, names, 0, size);
+            rows = new Page(ids, names, null);
+        } else {
+            rows = queryPage(Contact.buildPageUri(0, ContactListSnapshot.ROWS));
+            if (rows == null)
+                return;
+        }
+
+        if (newCount == snapshotCount && sameRows(rows, snapshotRows))
+            return;
+
+        try {
+            ContactListSnapshot.write(snapshotFile, newCount, rows);
+            snapshotCount = newCount;
+            snapshotRows = rows;
+        } catch (IOException e) {
+            // Без снимка следующий запуск просто дождется первого запроса.
+            snapshotFile.delete();
+            snapshotRows = null;
+        }
+    }
+
+    // Совпадают ли идентификаторы и имена строк.
+    private static boolean sameRows(Page rows, Page other) {
+        if (other == null || rows.size() != other.size())
+            return false;
+
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.ids[i] != other.ids[i] || !TextUtils.equals(rows.names[i], other.names[i]))
+                return false;
+        }
+        return true;
+    }
+
+    // Объединяет страницы [firstPage, lastPage] в одну.
+    private Page joinPages(int firstPage, int lastPage) {
+        int size = 0;
+        for (int i = firstPage; i <= lastPage; i++)
+            size += pages.get(i).size();
+
+        long[] ids = new long[size];
+        String[] names = new String[size];
+        String[] keys = new String[size];
+        int position = 0;
+
+        for (int i = firstPage; i <= lastPage; i++) {
+            Page page = pages.get(i);
+            System.arraycopy(page.ids, 0, ids, position, page.size());
+            System.arraycopy(page.names, 0, names, position, page.size());
+            // Окно только сравнивается с новым, поэтому ключи страниц из снимка не нужны.
+            if (page.keys != null)
+                System.arraycopy(page.keys, 0, keys, position, page.size());
+            position += page.size();
+        }
+        return new Page(ids, names, keys);
+    }
+
+    // Разбивает загруженное окно на страницы, начиная со страницы firstPage.
+    private void splitPages(int firstPage, Page window) {
+        for (int start = 0; start < window.size(); start += PAGE_SIZE) {
+            int size = Math.min(PAGE_SIZE, window.size() - start);
+            long[] ids = new long[size];
+            String[] names = new String[size];
+            String[] keys = window.keys != null ? new String[size] : null;
+
+            System.arraycopy(window.ids, start, ids, 0, size);
+            System.arraycopy(window.names, start, names, 0, size);
+            if (keys != null)
+                System.arraycopy(window.keys, start, keys, 0, size);
+            pages.put(firstPage + start / PAGE_SIZE, new Page(ids, names, keys));
+        }
+    }
+
+    // Сравнение старого и нового окна: строки совпадают по _id,
+    // содержимое - по отображаемому имени.
+    private static final class WindowDiffCallback extends DiffUtil.Callback {
+        private final Page oldWindow;
+        private final Page newWindow;
+
+        WindowDiffCallback(Page oldWindow, Page newWindow) {
+            this.oldWindow = oldWindow;
+            this.newWindow = newWindow;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldWindow.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newWindow.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return oldWindow.ids[oldPosition] == newWindow.ids[newPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return TextUtils.equals(oldWindow.names[oldPosition], newWindow.names[newPosition]);
+        }
+    }
+
+    // Передает события DiffUtil объекту callback со сдвигом позиций на offset.
+    private final class OffsetListUpdateCallback implements ListUpdateCallback {
+        private final int offset;
+
+        OffsetListUpdateCallback(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            callback.onInserted(offset + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            callback.onRemoved(offset + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            callback.onMoved(offset + fromPosition, offset + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            callback.onChanged(offset + position, count, payload);
+        }
+    }
+
+    // Вызывается при отображении позиции: загружает ее страницу и,
+    // если позиция близко к краю страницы, соседнюю страницу.
+    public void loadAround(int position) {
+        int pageIndex = position / PAGE_SIZE;
+        int offsetInPage = position % PAGE_SIZE;
+
+        lastAccessedPage = pageIndex;
+        loadPage(pageIndex);
+
+        if (offsetInPage >= PAGE_SIZE - PREFETCH_DISTANCE)
+            loadPage(pageIndex + 1);
+        if (offsetInPage < PREFETCH_DISTANCE && pageIndex > 0)
+            loadPage(pageIndex - 1);
+    }
+
+    // Запускает загрузку страницы, если она не загружена и не загружается.
+    private void loadPage(final int pageIndex) {
+        if (closed || pageIndex * PAGE_SIZE >= count || pages.get(pageIndex) != null ||
+                loadingPages.contains(pageIndex))
+            return;
+
+        // Страница запрашивается по ключу соседней страницы, если он есть
+        // (у контакта без имени и у страниц из снимка ключа нет).
+        Page previous = pages.get(pageIndex - 1);
+        Page next = pages.get(pageIndex + 1);
+        String lastKey = previous != null && previous.keys != null ?
+                previous.keys[previous.size() - 1] : null;
+        String nextKey = next != null && next.keys != null ? next.keys[0] : null;
+        final boolean backward = lastKey == null && nextKey != null;
+        final Uri pageUri;
+        if (lastKey != null)
+            pageUri = Contact.buildPageUri(lastKey, previous.ids[previous.size() - 1], PAGE_SIZE);
+        else if (backward)
+            // Лишняя строка показывает, есть ли контакты перед страницей.
+            pageUri = Contact.buildPageBeforeUri(nextKey, next.ids[0], PAGE_SIZE + 1);
+        else
+            pageUri = Contact.buildPageUri(pageIndex * PAGE_SIZE, PAGE_SIZE);
+        final int loadGeneration = generation;
+
+        loadingPages.add(pageIndex);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Page loaded = queryPage(pageUri);
+
+                // Страница перед ключом должна быть полной, а контакты перед ней
+                // есть, только если это не первая страница; иначе позиции страниц
+                // в памяти сдвинулись.
+                final boolean shifted = backward && loaded != null &&
+                        (loaded.size() < PAGE_SIZE ||
+                                (loaded.size() > PAGE_SIZE) != (pageIndex > 0));
+                final Page page = backward && loaded != null && !shifted ?
+                        reverse(loaded, PAGE_SIZE) : loaded;
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (loadGeneration != generation)
+                            return;
+
+                        loadingPages.remove(pageIndex);
+                        if (shifted) {
+                            // Список загружается заново с первой страницы.
+                            pages.clear();
+                            refresh();
+                            return;
+                        }
+                        if (page == null)
+                            return;
+
+                        pages.put(pageIndex, page);
+                        trimPages();
+                        callback.onRangeLoaded(pageIndex * PAGE_SIZE,
+                                Math.min(page.size(), count - pageIndex * PAGE_SIZE));
+                    }
+                });
+            }
+        });
+    }
+
+    // Первые size строк страницы в обратном порядке: страница перед ключом
+    // приходит от провайдера в обратном порядке списка.
+    private static Page reverse(Page page, int size) {
+        long[] ids = new long[size];
+        String[] names = new String[size];
+        String[] keys = new String[size];
+
+        for (int i = 0; i < size; i++) {
+            ids[i] = page.ids[size - 1 - i];
+            names[i] = page.names[size - 1 - i];
+            keys[i] = page.keys[size - 1 - i];
+        }
+        return new Page(ids, names, keys);
+    }
+
+    // Освобождает фоновый поток, когда список больше не отображается
+    // (ContactsFragment.onDestroyView). Выполняющийся запрос завершается,
+    // но его результат уже не передается Callback.
+    public void close() {
+        closed = true;
+        generation++;
+        executor.shutdown();
+    }
+
+    // Удаляет из памяти страницы, самые дальние от последней отображенной.
+    private void trimPages() {
+        while (pages.size() > MAX_RETAINED_PAGES) {
+            int farthest = 0;
+
+            for (int i = 1; i < pages.size(); i++) {
+                if (Math.abs(pages.keyAt(i) - lastAccessedPage) >
+                        Math.abs(pages.keyAt(farthest) - lastAccessedPage))
+                    farthest = i;
+            }
+            pages.removeAt(farthest);
+        }
+    }
+
+    // Количество контактов в таблице (выполняется в фоновом потоке).
+    private int queryCount() {
+        Cursor cursor = contentResolver.query(Contact.CONTENT_URI,
+                new String[]{"COUNT(*)"}, null, null, null);
+
+        if (cursor == null)
+            return 0;
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Алфавитный указатель (выполняется в фоновом потоке).
+    private ContactSections querySections() {
+        Cursor cursor = contentResolver.query(Contact.SECTIONS_URI, null, null, null, null);
+
+        if (cursor == null)
+            return ContactSections.EMPTY;
+        try {
+            return ContactSections.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Загрузка одной страницы (выполняется в фоновом потоке).
+    private Page queryPage(Uri pageUri) {
+        // Запрашиваются только столбцы списка, индексы которых известны заранее.
+        Cursor cursor = contentResolver.query(pageUri, Contact.LIST_PROJECTION,
+                null, null, null);
+
+        if (cursor == null)
+            return null;
+        try {
+            long[] ids = new long[cursor.getCount()];
+            String[] names = new String[ids.length];
+            String[] keys = new String[ids.length];
+
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(Contact.LIST_INDEX_ID);
+                names[i] = cursor.getString(Contact.LIST_INDEX_NAME);
+                keys[i] = cursor.getString(Contact.LIST_INDEX_SORT_KEY);
+            }
+            return new Page(ids, names, keys);
+        } finally {
+            cursor.close();
+        }
+    }
+}
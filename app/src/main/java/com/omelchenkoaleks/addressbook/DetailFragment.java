@@ -2,6 +2,7 @@ package com.omelchenkoaleks.addressbook;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.database.Cursor;
@@ -22,7 +23,9 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+import com.omelchenkoaleks.addressbook.data.ContactPrefetcher;
+import com.omelchenkoaleks.addressbook.data.ContactRecord;
+import com.omelchenkoaleks.addressbook.data.ContactWriteQueue;
 
 /**
  * Отображает информацию одного контакта и предоставляет
@@ -33,6 +36,8 @@ import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
  * Вложенный интерфейс DetailFragment определяет методы обратного вызова,
  * реализуемые MainActivity, чтобы активность могла реагировать на удаление
  * контакта или прикосновение к команде на панели приложения для редактирования контакта.
+ * Если запись контакта заранее загружена ContactPrefetcher, она отображается
+ * сразу при создании представлений, а CursorLoader только следит за изменениями.
  */
 public class DetailFragment extends Fragment
     implements LoaderManager.LoaderCallbacks<Cursor> {
@@ -56,6 +61,10 @@ public class DetailFragment extends Fragment
     // MainActivity.
     private DetailFragmentListener listener;
 
+    // Время выбора контакта в списке (System.nanoTime()) или 0, если
+    // время до отображения уже записано или не измеряется.
+    private long selectedAt;
+
     // Имя контакта.
     private TextView nameTextView;
     // Телефон.
@@ -99,9 +108,14 @@ public class DetailFragment extends Fragment
         // Получение объекта Bundle с аргументами и извлечение URI.
         Bundle arguments = getArguments();
 
-        if (arguments != null)
+        if (arguments != null) {
             contactUri = arguments.getParcelable(MainActivity.CONTACT_URI);
 
+            // При восстановлении фрагмента время выбора уже не имеет смысла.
+            if (savedInstanceState == null)
+                selectedAt = arguments.getLong(MainActivity.SELECTED_AT);
+        }
+
         // // Заполнение макета DetailFragment.
         View view = inflater.inflate(R.layout.fragment_details, container, false);
 
@@ -114,7 +128,16 @@ public class DetailFragment extends Fragment
         stateTextView = view.findViewById(R.id.stateTextView);
         zipTextView = view.findViewById(R.id.zipTextView);
 
-        // Загрузка контакта.
+        // Заранее загруженный контакт отображается без ожидания загрузки.
+        ContactPrefetcher prefetcher = ContactPrefetcher.getInstance(getActivity());
+        ContactRecord prefetched = prefetcher.getContact(ContentUris.parseId(contactUri));
+
+        if (prefetched != null) {
+            displayContact(prefetched);
+            recordTimeToDetail(true);
+        }
+
+        // Загрузка контакта; Loader также обновляет информацию при изменении контакта.
         getLoaderManager().initLoader(CONTACT_LOADER, null, this);
 
         return view;
@@ -166,10 +189,10 @@ public class DetailFragment extends Fragment
                     new DialogInterface.OnClickListener() {
                         @Override
                         public void onClick(DialogInterface dialog, int button) {
-                            // Объект ContentResolver используется для вызова
-                            // delete в AddressBookContentProvider.
-                            getActivity().getContentResolver()
-                                    .delete( contactUri, null, null);
+                            // Удаление выполняется в фоновом потоке очередью
+                            // ContactWriteQueue, а список обновляется сразу.
+                            ContactWriteQueue.getInstance(getActivity())
+                                    .delete(contactUri, null);
                             // Оповещение слушателя.
                             listener.onContactDeleted();
                         }
@@ -210,28 +233,32 @@ public class DetailFragment extends Fragment
 
         // Если контакт существует в базе данных, вывести его информацию.
         if (data != null && data.moveToFirst()) {
-
-            // Получение индекса столбца для каждого элемента данных.
-            int nameIndex = data.getColumnIndex(Contact.COLUMN_NAME);
-            int phoneIndex = data.getColumnIndex(Contact.COLUMN_PHONE);
-            int emailIndex = data.getColumnIndex(Contact.COLUMN_EMAIL);
-            int streetIndex = data.getColumnIndex(Contact.COLUMN_STREET);
-            int cityIndex = data.getColumnIndex(Contact.COLUMN_CITY);
-            int stateIndex = data.getColumnIndex(Contact.COLUMN_STATE);
-            int zipIndex = data.getColumnIndex(Contact.COLUMN_ZIP);
-
-            // Заполнение TextView полученными данными.
-            nameTextView.setText(data.getString(nameIndex));
-            phoneTextView.setText(data.getString(phoneIndex));
-            emailTextView.setText(data.getString(emailIndex));
-            streetTextView.setText(data.getString(streetIndex));
-            cityTextView.setText(data.getString(cityIndex));
-            stateTextView.setText(data.getString(stateIndex));
-            zipTextView.setText(data.getString(zipIndex));
+            displayContact(ContactRecord.fromCursor(data));
+            recordTimeToDetail(false);
         }
     }
 
     // Вызывается LoaderManager при сбросе Loader.
     @Override
     public void onLoaderReset(@NonNull Loader<Cursor> loader) { }
+
+    // Вывод информации контакта.
+    private void displayContact(ContactRecord contact) {
+        nameTextView.setText(contact.getName());
+        phoneTextView.setText(contact.getPhone());
+        emailTextView.setText(contact.getEmail());
+        streetTextView.setText(contact.getStreet());
+        cityTextView.setText(contact.getCity());
+        stateTextView.setText(contact.getState());
+        zipTextView.setText(contact.getZip());
+    }
+
+    // Записывает время от выбора контакта до первого отображения его информации.
+    private void recordTimeToDetail(boolean prefetched) {
+        if (selectedAt == 0)
+            return;
+
+        ContactPrefetcher.getInstance(getActivity()).recordTimeToDetail(selectedAt, prefetched);
+        selectedAt = 0;
+    }
 }
@@ -1,6 +1,7 @@
 package com.omelchenkoaleks.addressbook;
 
 import android.net.Uri;
+import android.os.StrictMode;
 import android.support.v4.app.FragmentTransaction;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
@@ -20,6 +21,10 @@ public class MainActivity extends AppCompatActivity implements
     // Ключ для сохранения Uri контакта в переданном объекте Bundle.
     public static final String CONTACT_URI = "contact_uri";
 
+    // Ключ времени выбора контакта в списке (System.nanoTime()) в аргументах
+    // DetailFragment; по нему измеряется время до отображения контакта.
+    public static final String SELECTED_AT = "selected_at";
+
     // В эту переменную будем выводить список контактов.
     private ContactsFragment contactsFragment;
 
@@ -28,6 +33,16 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        // В отладочной сборке обращения к диску в главном потоке записываются в журнал.
+        if (BuildConfig.DEBUG) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .build());
+        }
+
         setContentView(R.layout.activity_main);
 
         Toolbar toolbar = findViewById(R.id.toolbar);
@@ -57,15 +72,17 @@ public class MainActivity extends AppCompatActivity implements
     // Отображение DetailFragment для выбранного контакта.
     @Override
     public void onContactSelected(Uri contactUri) {
+        long selectedAt = System.nanoTime();
+
         // Телефон.
         if (findViewById(R.id.fragmentContainer) != null) {
-            displayContact(contactUri, R.id.fragmentContainer);
+            displayContact(contactUri, R.id.fragmentContainer, selectedAt);
         } else {
             // Планшет.
             // Извлекаем с вершины стека возврата.
             getSupportFragmentManager().popBackStack();
 
-            displayContact(contactUri, R.id.rightPaneContainer);
+            displayContact(contactUri, R.id.rightPaneContainer, selectedAt);
         }
     }
 
@@ -80,14 +97,16 @@ public class MainActivity extends AppCompatActivity implements
             displayAddEditFragment(R.id.rightPaneContainer, null);
     }
 
-    // Отображение информации о контакте.
-    private void displayContact(Uri contactUri, int viewID) {
+    // Отображение информации о контакте; selectedAt - время выбора контакта
+    // в списке или 0, если контакт отображается без выбора.
+    private void displayContact(Uri contactUri, int viewID, long selectedAt) {
 
         DetailFragment detailFragment = new DetailFragment();
 
         // Передаем URI контакт в аргументе DetailFragment
         Bundle arguments = new Bundle();
         arguments.putParcelable(CONTACT_URI, contactUri);
+        arguments.putLong(SELECTED_AT, selectedAt);
         detailFragment.setArguments(arguments);
 
         // Используем FragmentTransaction для отображения
@@ -152,7 +171,7 @@ public class MainActivity extends AppCompatActivity implements
             getSupportFragmentManager().popBackStack();
 
             // На планшете выводится добавленный или измененный контакт.
-            displayContact(contactUri, R.id.rightPaneContainer);
+            displayContact(contactUri, R.id.rightPaneContainer, 0);
         }
     }
 }
@@ -0,0 +1,97 @@
+package com.omelchenkoaleks.addressbook;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.omelchenkoaleks.addressbook.data.ContactPrefetcher;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+/**
+ * Поставляет результаты ContactSearchController компоненту RecyclerView
+ * класса ContactsFragment, пока в строке поиска есть запрос.
+ * Строки выглядят так же, как в списке всех контактов.
+ */
+public class SearchResultsAdapter extends RecyclerView.Adapter<SearchResultsAdapter.ViewHolder> {
+
+    /**
+     * Строка результата поиска.
+     */
+    public class ViewHolder extends RecyclerView.ViewHolder {
+
+        public final TextView textView;
+        private long rowID;
+
+        public ViewHolder(@NonNull View itemView) {
+            super(itemView);
+
+            textView = itemView.findViewById(android.R.id.text1);
+
+            itemView.setOnClickListener(
+                    new View.OnClickListener() {
+                        @Override
+                        public void onClick(View view) {
+                            clickListener.onClick(Contact.buildContactUri(rowID));
+                        }
+                    }
+            );
+        }
+    }
+
+    private final ContactPrefetcher prefetcher;
+    private final ContactsAdapter.ContactClickListener clickListener;
+
+    // Найденные контакты.
+    private long[] ids = new long[0];
+    private String[] names = new String[0];
+
+    // Конструктор.
+    public SearchResultsAdapter(ContactPrefetcher prefetcher,
+                                ContactsAdapter.ContactClickListener clickListener) {
+        this.prefetcher = prefetcher;
+        this.clickListener = clickListener;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(android.R.layout.simple_list_item_1, parent, false);
+        view.setBackgroundResource(R.drawable.contact_item_background);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        holder.rowID = ids[position];
+        holder.textView.setText(names[position]);
+
+        // Найденный контакт, скорее всего, будет открыт - его запись загружается заранее.
+        prefetcher.prefetch(ids[position]);
+    }
+
+    @Override
+    public int getItemCount() {
+        return ids.length;
+    }
+
+    // Заменяет результаты. Первые совпадения - начало полного результата,
+    // поэтому при его загрузке список только дополняется.
+    public void setResults(long[] newIds, String[] newNames) {
+        int oldCount = ids.length;
+        boolean appended = newIds.length >= oldCount;
+        for (int i = 0; appended && i < oldCount; i++)
+            appended = ids[i] == newIds[i];
+
+        ids = newIds;
+        names = newNames;
+
+        if (appended && oldCount > 0)
+            notifyItemRangeInserted(oldCount, newIds.length - oldCount);
+        else
+            notifyDataSetChanged();
+    }
+}
@@ -0,0 +1,95 @@
+package com.omelchenkoaleks.addressbook;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.SectionIndexer;
+
+/**
+ * Вертикальная полоса с буквами алфавитного указателя у края списка контактов.
+ * Касание или перемещение пальца по букве сообщает слушателю номер раздела,
+ * и список сразу переходит к его первой позиции.
+ */
+public class SectionIndexBar extends View {
+
+    /**
+     * Интерфейс реализуется ContactsFragment для перехода к разделу.
+     */
+    public interface OnSectionSelectedListener {
+        void onSectionSelected(int section);
+    }
+
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private SectionIndexer sectionIndexer;
+    private OnSectionSelectedListener listener;
+
+    public SectionIndexBar(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        paint.setTextAlign(Paint.Align.CENTER);
+        paint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 12,
+                getResources().getDisplayMetrics()));
+
+        TypedValue color = new TypedValue();
+        context.getTheme().resolveAttribute(android.R.attr.textColorSecondary, color, true);
+        paint.setColor(color.resourceId != 0 ?
+                getResources().getColor(color.resourceId) : color.data);
+    }
+
+    // Источник разделов; полоса перерисовывается при каждом вызове.
+    public void setSectionIndexer(SectionIndexer sectionIndexer) {
+        this.sectionIndexer = sectionIndexer;
+        invalidate();
+    }
+
+    public void setOnSectionSelectedListener(OnSectionSelectedListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        Object[] sections = sectionIndexer != null ? sectionIndexer.getSections() : null;
+        if (sections == null || sections.length == 0)
+            return;
+
+        float sectionHeight = (float) getHeight() / sections.length;
+        float x = getWidth() / 2f;
+
+        for (int i = 0; i < sections.length; i++) {
+            float y = sectionHeight * i + (sectionHeight - paint.ascent()) / 2f;
+            canvas.drawText(sections[i].toString(), x, y, paint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        Object[] sections = sectionIndexer != null ? sectionIndexer.getSections() : null;
+        if (sections == null || sections.length == 0)
+            return false;
+
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+                int section = (int) (event.getY() / getHeight() * sections.length);
+                section = Math.max(0, Math.min(section, sections.length - 1));
+                if (listener != null)
+                    listener.onSectionSelected(section);
+                return true;
+            case MotionEvent.ACTION_UP:
+                performClick();
+                return true;
+        }
+        return super.onTouchEvent(event);
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+}
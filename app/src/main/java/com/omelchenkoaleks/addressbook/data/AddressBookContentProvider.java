@@ -1,12 +1,31 @@
 package com.omelchenkoaleks.addressbook.data;
 
+import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.text.TextUtils;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
 
 import com.omelchenkoaleks.addressbook.R;
 import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
@@ -20,6 +39,15 @@ public class AddressBookContentProvider extends ContentProvider {
     // Будет использоваться для обращения к базе данных.
     private AddressBookDatabaseHelper dbHelper;
 
+    // Кеш отдельных контактов для запросов по Uri контакта.
+    private final ContactCache contactCache = new ContactCache();
+
+    // Объединяет оповещения об изменениях, поступившие за короткое время.
+    private ChangeNotifier changeNotifier;
+
+    // Скомпилированная команда удаления одного контакта; создается при первом удалении.
+    private SQLiteStatement deleteContactStatement;
+
     // UriMatcher помогает ContentProvider определить выполняемую операцию.
     // Эта статическая переменная содержит объект класса UriMatcher и используется для
     // того, чтобы определять, какие операции должны выполняться в методах
@@ -27,11 +55,59 @@ public class AddressBookContentProvider extends ContentProvider {
     private static final UriMatcher uriMatcher =
             new UriMatcher(UriMatcher.NO_MATCH);
 
+    // Столбцы, которые заполняет скомпилированная команда пакетной вставки.
+    private static final String[] INSERT_COLUMNS = {
+            Contact.COLUMN_NAME, Contact.COLUMN_PHONE, Contact.COLUMN_EMAIL,
+            Contact.COLUMN_STREET, Contact.COLUMN_CITY, Contact.COLUMN_STATE,
+            Contact.COLUMN_ZIP, Contact.COLUMN_PHONE_KEY, Contact.COLUMN_SORT_KEY,
+            Contact.COLUMN_SECTION_KEY, Contact.COLUMN_SYNC_ID
+    };
+
+    // Условие, отбирающее контакты, которые не удалены мягким удалением.
+    // Унарный плюс запрещает SQLite использовать для условия индекс deleted_at:
+    // без ANALYZE планировщик выбрал бы его вместо индекса sort_key и сортировал
+    // бы всю таблицу во временном B-дереве. Частичный индекс
+    // (WHERE deleted_at IS NOT NULL) решил бы это так же, но он доступен
+    // только с SQLite 3.8.0 (API 21).
+    static final String LIVE_CONTACTS =
+            "+" + Contact.TABLE_NAME + "." + Contact.COLUMN_DELETED_AT + " IS NULL";
+
+    // Наибольшее количество идентификаторов в одной команде: SQLite ограничивает
+    // количество параметров команды (999).
+    private static final int MAX_IDS_PER_STATEMENT = 500;
+
+    // true, пока текущий поток выполняет пакет операций: оповещения
+    // откладываются и отправляются один раз после завершения транзакции.
+    private final ThreadLocal<Boolean> applyingBatch = new ThreadLocal<>();
+
     // Используем эти константы для определения выполняемой операции.
     // Один контакт.
     private static final int ONE_CONTACT = 1;
     // Таблица контактов.
     private static final int CONTACTS = 2;
+    // Полнотекстовый поиск контактов.
+    private static final int SEARCH = 3;
+    // Алфавитный указатель списка.
+    private static final int SECTIONS = 4;
+    // Поиск контакта по номеру телефона.
+    private static final int PHONE_LOOKUP = 5;
+    // Предложения объединения дубликатов.
+    private static final int DUPLICATES = 6;
+    // Изменения после версии для синхронизации.
+    private static final int CHANGES = 7;
+    // Наибольший код UriMatcher; используется для размера таблицы метрик.
+    private static final int MAX_MATCH_CODE = CHANGES;
+
+    // Время выполнения и количество строк по операциям и кодам Uri.
+    private final ProviderMetrics metrics = new ProviderMetrics(MAX_MATCH_CODE);
+
+    // Фабрика курсоров запросов к таблице contacts или null (курсор по умолчанию).
+    // Тесты получают через нее текст запроса для EXPLAIN QUERY PLAN.
+    SQLiteDatabase.CursorFactory queryCursorFactory;
+
+    // Столбцы contacts и contacts_fts называются одинаково, поэтому при поиске
+    // имена столбцов уточняются именем таблицы contacts.
+    private static final Map<String, String> SEARCH_PROJECTION_MAP = new HashMap<>();
 
     // Статический блок для настройки UriMatcher объекта ContentProvider.
     // Этот блок выполнится один раз, когда AddressBookContentProvider будет загружаться в память.
@@ -51,6 +127,33 @@ public class AddressBookContentProvider extends ContentProvider {
         // Uri для таблицы.
         uriMatcher.addURI(DatabaseDescription.AUTHORITY,
                 Contact.TABLE_NAME, CONTACTS);
+
+        // Uri для алфавитного указателя.
+        uriMatcher.addURI(DatabaseDescription.AUTHORITY,
+                Contact.TABLE_NAME + "/" + Contact.PATH_SECTIONS, SECTIONS);
+
+        // Uri для поиска по номеру телефона.
+        uriMatcher.addURI(DatabaseDescription.AUTHORITY,
+                Contact.TABLE_NAME + "/" + Contact.PATH_PHONE_LOOKUP + "/*", PHONE_LOOKUP);
+
+        // Uri для предложений объединения дубликатов.
+        uriMatcher.addURI(DatabaseDescription.AUTHORITY,
+                Contact.TABLE_NAME + "/" + Contact.PATH_DUPLICATES, DUPLICATES);
+
+        // Uri для изменений после версии.
+        uriMatcher.addURI(DatabaseDescription.AUTHORITY,
+                Contact.TABLE_NAME + "/" + Contact.PATH_CHANGES, CHANGES);
+
+        // Uri для поиска по строке запроса.
+        uriMatcher.addURI(DatabaseDescription.AUTHORITY,
+                Contact.TABLE_NAME + "/" + Contact.PATH_SEARCH + "/*", SEARCH);
+
+        for (String column : Contact.ALL_COLUMNS) {
+            SEARCH_PROJECTION_MAP.put(column,
+                    Contact.TABLE_NAME + "." + column + " AS " + column);
+        }
+        SEARCH_PROJECTION_MAP.put(Contact.COLUMN_SORT_KEY, Contact.TABLE_NAME + "." +
+                Contact.COLUMN_SORT_KEY + " AS " + Contact.COLUMN_SORT_KEY);
     }
 
     // Будет вызываться при создании AddressBookContentProvider.
@@ -58,28 +161,187 @@ public class AddressBookContentProvider extends ContentProvider {
     public boolean onCreate() {
         // Создаем объект.
         dbHelper = new AddressBookDatabaseHelper(getContext());
+        changeNotifier = new ChangeNotifier(getContext().getContentResolver());
         return true;
     }
 
-    // Получение информации из базы данных.
+    // Получение информации из базы данных с записью метрик.
     @Override
     public Cursor query(Uri uri,
                         String[] projection,
                         String selection,
                         String[] selectionArgs,
                         String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    // То же с возможностью отмены: ContentResolver передает сюда CancellationSignal
+    // клиента начиная с API 16, на API 15 cancellationSignal всегда null.
+    // Отмена прерывает выполнение запроса SQLite и заполнение окна курсора
+    // исключением OperationCanceledException.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public Cursor query(Uri uri,
+                        String[] projection,
+                        String selection,
+                        String[] selectionArgs,
+                        String sortOrder,
+                        CancellationSignal cancellationSignal) {
+        if (!metrics.isEnabled())
+            return queryContacts(uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+
+        long start = System.nanoTime();
+        Cursor cursor = queryContacts(uri, projection, selection, selectionArgs, sortOrder,
+                cancellationSignal);
+        int match = uriMatcher.match(uri);
+
+        // Первое окно курсора заполняется не здесь, а при первом getCount у клиента.
+        metrics.record(ProviderMetrics.QUERY, match, start, 0, 0);
+        return metrics.measureQuery(cursor, match);
+    }
+
+    // Получение информации из базы данных.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private Cursor queryContacts(Uri uri,
+                        String[] projection,
+                        String selection,
+                        String[] selectionArgs,
+                        String sortOrder,
+                        CancellationSignal cancellationSignal) {
 
         // Создаем SQLiteQueryBuilder для запроса к таблице contacts.
         SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
         queryBuilder.setTables(Contact.TABLE_NAME);
+        queryBuilder.setCursorFactory(queryCursorFactory);
+
+        // Ограничение числа строк для постраничных запросов.
+        String limitClause = null;
+
+        // Удаленные контакты, ожидающие окончательного удаления, не возвращаются.
+        queryBuilder.appendWhere(LIVE_CONTACTS);
 
         switch (uriMatcher.match(uri)) {
             // Выбираем контакт с заданным идентификатором.
             case ONE_CONTACT:
-                queryBuilder.appendWhere(Contact._ID + "=" + uri.getLastPathSegment());
+                // Запрос без дополнительных условий обслуживается из кеша.
+                if (selection == null) {
+                    Cursor cachedCursor = queryCachedContact(
+                            ContentUris.parseId(uri), projection);
+
+                    if (cachedCursor != null) {
+                        cachedCursor.setNotificationUri(
+                                getContext().getContentResolver(), uri);
+                        return cachedCursor;
+                    }
+                }
+                // Идентификатор передается параметром: текст запроса одинаков для
+                // всех контактов и берется из кеша скомпилированных команд SQLite.
+                queryBuilder.appendWhere(" AND " + Contact._ID + "=?");
+                selectionArgs = prependArgument(uri.getLastPathSegment(), selectionArgs);
                 break;
-            // Выбираем все контакты.
+            // Выбираем все контакты или одну страницу списка.
             case CONTACTS:
+                // Набор контактов по списку идентификаторов - один запрос
+                // вместо запроса на каждый контакт.
+                // Идентификаторы разобраны как числа и подставляются в текст запроса.
+                String ids = uri.getQueryParameter(Contact.PARAM_IDS);
+                if (ids != null) {
+                    StringBuilder idList = new StringBuilder();
+                    for (long id : parseIds(ids)) {
+                        if (idList.length() > 0)
+                            idList.append(',');
+                        idList.append(id);
+                    }
+                    queryBuilder.appendWhere(" AND " + Contact._ID + " IN (" + idList + ")");
+                }
+
+                String limit = uri.getQueryParameter(Contact.PARAM_LIMIT);
+
+                if (limit != null) {
+                    String afterKey = uri.getQueryParameter(Contact.PARAM_AFTER_KEY);
+                    String afterId = uri.getQueryParameter(Contact.PARAM_AFTER_ID);
+                    String beforeKey = uri.getQueryParameter(Contact.PARAM_BEFORE_KEY);
+                    String beforeId = uri.getQueryParameter(Contact.PARAM_BEFORE_ID);
+                    String offset = uri.getQueryParameter(Contact.PARAM_OFFSET);
+
+                    limitClause = String.valueOf(Integer.parseInt(limit));
+                    sortOrder = Contact.LIST_SORT_ORDER;
+
+                    if (afterKey != null || afterId != null) {
+                        // Страница после ключа (sort_key, _id) - проход по индексу без OFFSET.
+                        appendKeyCondition(queryBuilder, ">", afterKey,
+                                parsePageKey(uri, afterKey, afterId));
+                    } else if (beforeKey != null || beforeId != null) {
+                        // Страница перед ключом - проход по индексу в обратном порядке.
+                        appendKeyCondition(queryBuilder, "<", beforeKey,
+                                parsePageKey(uri, beforeKey, beforeId));
+                        sortOrder = Contact.LIST_REVERSE_SORT_ORDER;
+                    } else if (offset != null) {
+                        limitClause = Integer.parseInt(offset) + "," + limitClause;
+                    }
+                }
+                break;
+            // Контакты с тем же нормализованным номером - один поиск по индексу.
+            case PHONE_LOOKUP:
+                String phoneKey = PhoneNumbers.normalize(uri.getLastPathSegment());
+
+                if (phoneKey == null) {
+                    queryBuilder.appendWhere(" AND 0");
+                } else {
+                    queryBuilder.appendWhere(" AND " + Contact.COLUMN_PHONE_KEY + " = ");
+                    queryBuilder.appendWhereEscapeString(phoneKey);
+                }
+                break;
+            // Разделы алфавитного указателя в порядке списка из таблицы счетчиков
+            // разделов; проекция и условия не применяются.
+            case SECTIONS:
+                Cursor sections = SortKeys.sections(dbHelper.getReadableDatabase());
+                sections.setNotificationUri(getContext().getContentResolver(), uri);
+                return sections;
+            // Пары возможных дубликатов; проекция и условия не применяются.
+            case DUPLICATES:
+                Cursor duplicates = new DuplicateDetector().findDuplicates(
+                        dbHelper.getReadableDatabase());
+                duplicates.setNotificationUri(getContext().getContentResolver(), uri);
+                return duplicates;
+            // Журнал изменений с текущим состоянием контактов.
+            case CHANGES:
+                Cursor changes = queryChanges(uri);
+                changes.setNotificationUri(getContext().getContentResolver(), uri);
+                return changes;
+            // Выбираем контакты, совпадающие с запросом по префиксам слов.
+            case SEARCH:
+                String match = buildMatchExpression(uri.getLastPathSegment(), null);
+
+                queryBuilder.setTables(Contact.TABLE_NAME + " JOIN " +
+                        Contact.SEARCH_TABLE_NAME + " ON " + Contact.TABLE_NAME + "." +
+                        Contact._ID + " = " + Contact.SEARCH_TABLE_NAME + ".docid");
+                queryBuilder.setProjectionMap(SEARCH_PROJECTION_MAP);
+
+                if (match == null) {
+                    // В запросе нет ни одного слова - результат пуст.
+                    queryBuilder.appendWhere(" AND 0");
+                } else {
+                    queryBuilder.appendWhere(" AND " + Contact.SEARCH_TABLE_NAME + " MATCH ");
+                    queryBuilder.appendWhereEscapeString(match);
+
+                    // Сначала контакты, у которых с запросом совпадает имя.
+                    if (sortOrder == null) {
+                        sortOrder = "CASE WHEN " + Contact.TABLE_NAME + "." + Contact._ID +
+                                " IN (SELECT docid FROM " + Contact.SEARCH_TABLE_NAME +
+                                " WHERE " + Contact.SEARCH_TABLE_NAME + " MATCH " +
+                                DatabaseUtils.sqlEscapeString(buildMatchExpression(
+                                        uri.getLastPathSegment(), Contact.COLUMN_NAME)) +
+                                ") THEN 0 ELSE 1 END, " + Contact.TABLE_NAME + "." +
+                                Contact.COLUMN_SORT_KEY + " ASC";
+                    }
+                }
+
+                // Первые совпадения для отображения до загрузки всего результата.
+                String searchLimit = uri.getQueryParameter(Contact.PARAM_LIMIT);
+                if (searchLimit != null)
+                    limitClause = String.valueOf(Integer.parseInt(searchLimit));
                 break;
 
                 default:
@@ -88,8 +350,11 @@ public class AddressBookContentProvider extends ContentProvider {
         }
 
         // Выполняем запрос для получения одного или всех контактов.
-        Cursor cursor = queryBuilder.query(dbHelper.getReadableDatabase(),
-                projection, selection, selectionArgs, null, null, sortOrder);
+        Cursor cursor = cancellationSignal != null ?
+                queryBuilder.query(dbHelper.getReadableDatabase(), projection, selection,
+                        selectionArgs, null, null, sortOrder, limitClause, cancellationSignal) :
+                queryBuilder.query(dbHelper.getReadableDatabase(), projection, selection,
+                        selectionArgs, null, null, sortOrder, limitClause);
 
         // Настраиваем отслеживание изменений в контенте.
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
@@ -97,29 +362,436 @@ public class AddressBookContentProvider extends ContentProvider {
         return cursor;
     }
 
+    // Изменения после версии since в порядке возрастания версии. Удаленный
+    // контакт (строки нет или она удалена мягким удалением) возвращается
+    // с deleted = 1 и пустыми столбцами данных.
+    private Cursor queryChanges(Uri uri) {
+        String since = uri.getQueryParameter(Contact.PARAM_SINCE);
+        String limit = uri.getQueryParameter(Contact.PARAM_LIMIT);
+
+        StringBuilder sql = new StringBuilder("SELECT ch.")
+                .append(Contact.CHANGE_COLUMN_VERSION).append(", ch.")
+                .append(Contact.COLUMN_SYNC_ID).append(", c.").append(Contact._ID)
+                .append(" IS NULL OR c.").append(Contact.COLUMN_DELETED_AT)
+                .append(" IS NOT NULL AS ").append(Contact.CHANGE_COLUMN_DELETED)
+                .append(", ch.").append(Contact.CHANGE_COLUMN_LOCAL);
+        for (int i = 1; i < Contact.ALL_COLUMNS.length; i++) {
+            sql.append(", CASE WHEN c.").append(Contact.COLUMN_DELETED_AT)
+                    .append(" IS NULL THEN c.").append(Contact.ALL_COLUMNS[i])
+                    .append(" END AS ").append(Contact.ALL_COLUMNS[i]);
+        }
+        sql.append(" FROM ").append(Contact.CHANGES_TABLE_NAME).append(" ch LEFT JOIN ")
+                .append(Contact.TABLE_NAME).append(" c ON c.").append(Contact.COLUMN_SYNC_ID)
+                .append(" = ch.").append(Contact.COLUMN_SYNC_ID)
+                .append(" WHERE ch.").append(Contact.CHANGE_COLUMN_VERSION)
+                .append(" > ? ORDER BY ch.").append(Contact.CHANGE_COLUMN_VERSION);
+        if (limit != null)
+            sql.append(" LIMIT ").append(Integer.parseInt(limit));
+
+        return dbHelper.getReadableDatabase().rawQuery(sql.toString(),
+                new String[]{String.valueOf(since != null ? Long.parseLong(since) : 0)});
+    }
+
+    // Возвращает контакт из кеша, при промахе читает его из базы данных и кеширует.
+    // Возвращает null, если контакта нет или проекция содержит столбцы не из таблицы.
+    private Cursor queryCachedContact(long id, String[] projection) {
+        ContactRecord record = contactCache.get(id);
+
+        if (record == null) {
+            long readVersion = contactCache.version();
+            Cursor cursor = dbHelper.getReadableDatabase().query(Contact.TABLE_NAME,
+                    Contact.ALL_COLUMNS, Contact._ID + "=? AND " + LIVE_CONTACTS,
+                    new String[]{String.valueOf(id)}, null, null, null);
+            try {
+                if (!cursor.moveToFirst())
+                    return null;
+                record = ContactRecord.fromCursor(cursor);
+            } finally {
+                cursor.close();
+            }
+            contactCache.put(id, record, readVersion);
+        }
+
+        return record.toCursor(projection);
+    }
+
+    // Дополнительные методы провайдера: статистика кеша контактов, метрики
+    // операций, объединение дубликатов и пересчет ключей сортировки.
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (Contact.METHOD_CACHE_STATS.equals(method))
+            return contactCache.stats();
+        if (Contact.METHOD_METRICS.equals(method))
+            return metrics.snapshot();
+        if (Contact.METHOD_SET_METRICS.equals(method)) {
+            metrics.setEnabled(Boolean.parseBoolean(arg));
+            return null;
+        }
+        if (Contact.METHOD_RESTORE.equals(method)) {
+            int restored = setDeletedAt(requireExtras(method, extras, Contact.PARAM_IDS)
+                    .getLongArray(Contact.PARAM_IDS), null);
+            if (restored != 0)
+                notifyChange(Contact.CONTENT_URI);
+            return rowsResult(restored);
+        }
+        if (Contact.METHOD_PURGE.equals(method))
+            return rowsResult(purgeDeletedContacts(
+                    extras != null ? extras.getLongArray(Contact.PARAM_IDS) : null));
+        if (Contact.METHOD_APPLY_CHANGES.equals(method)) {
+            ArrayList<ContentValues> changes = requireExtras(method, extras,
+                    Contact.PATH_CHANGES).getParcelableArrayList(Contact.PATH_CHANGES);
+            return rowsResult(applyRemoteChanges(changes,
+                    extras.getString(Contact.CHANGE_COLUMN_ORIGIN)));
+        }
+        if (Contact.METHOD_MERGE.equals(method)) {
+            mergeContacts(parseCallId(method, arg), requireExtras(method, extras,
+                    Contact.DUPLICATE_COLUMN_DUPLICATE_ID).getLong(
+                    Contact.DUPLICATE_COLUMN_DUPLICATE_ID));
+            return null;
+        }
+        if (Contact.METHOD_UPDATE_SORT_KEYS.equals(method)) {
+            int updated = SortKeys.updateBatch(dbHelper.getWritableDatabase());
+            boolean done = updated < SortKeys.BATCH_SIZE;
+
+            // Порядок списка меняется только после пересчета всех ключей.
+            if (done && updated >= 0)
+                notifyChange(Contact.CONTENT_URI);
+
+            Bundle result = rowsResult(Math.max(updated, 0));
+            result.putBoolean(Contact.RESULT_DONE, done);
+            return result;
+        }
+
+        return super.call(method, arg, extras);
+    }
+
+    // _id контакта из аргумента arg метода call.
+    private long parseCallId(String method, String arg) {
+        try {
+            return Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    getContext().getString(R.string.invalid_call_argument) + method + " " + arg);
+        }
+    }
+
+    // Условие "(sort_key, _id) operator (key, id)" для страницы по ключу.
+    private static void appendKeyCondition(SQLiteQueryBuilder queryBuilder, String operator,
+                                           String key, long id) {
+        queryBuilder.appendWhere(" AND (" + Contact.COLUMN_SORT_KEY + " " + operator + " ");
+        queryBuilder.appendWhereEscapeString(key);
+        queryBuilder.appendWhere(" OR (" + Contact.COLUMN_SORT_KEY + " = ");
+        queryBuilder.appendWhereEscapeString(key);
+        queryBuilder.appendWhere(" AND " + Contact._ID + " " + operator + " " + id + "))");
+    }
+
+    // _id ключа страницы (key, id). Ключ задается только обоими параметрами,
+    // и id должен быть числом.
+    private long parsePageKey(Uri uri, String key, String id) {
+        if (key != null && id != null) {
+            try {
+                return Long.parseLong(id);
+            } catch (NumberFormatException e) {
+                // Сообщение ниже.
+            }
+        }
+        throw new IllegalArgumentException(
+                getContext().getString(R.string.invalid_query_uri) + uri);
+    }
+
+    // extras метода call, если в них есть значение key, отличное от null.
+    private Bundle requireExtras(String method, Bundle extras, String key) {
+        if (extras == null || extras.get(key) == null)
+            throw new IllegalArgumentException(
+                    getContext().getString(R.string.invalid_call_argument) + method + " " + key);
+        return extras;
+    }
+
+    // Объединяет дубликат с контактом keepId в одной транзакции: пустые столбцы
+    // контакта заполняются значениями дубликата, дубликат удаляется.
+    private void mergeContacts(long keepId, long duplicateId) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String[] keepArgs = {String.valueOf(keepId)};
+        String[] duplicateArgs = {String.valueOf(duplicateId)};
+
+        db.beginTransactionNonExclusive();
+        try {
+            ContactRecord keep = readContact(db, keepArgs);
+            ContactRecord duplicate = readContact(db, duplicateArgs);
+            if (keep == null || duplicate == null || keepId == duplicateId)
+                return;
+
+            // Столбец 0 - _id, остальные в порядке Contact.ALL_COLUMNS.
+            ContentValues values = new ContentValues();
+            for (int i = 1; i < Contact.ALL_COLUMNS.length; i++) {
+                if (TextUtils.isEmpty(keep.get(i)) && !TextUtils.isEmpty(duplicate.get(i)))
+                    values.put(Contact.ALL_COLUMNS[i], duplicate.get(i));
+            }
+
+            if (values.size() > 0) {
+                db.update(Contact.TABLE_NAME, withDerivedColumns(values),
+                        Contact._ID + "=?", keepArgs);
+                logChange(db, keepId);
+            }
+            logChange(db, duplicateId);
+            db.delete(Contact.TABLE_NAME, Contact._ID + "=?", duplicateArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        contactCache.invalidate(keepId);
+        contactCache.invalidate(duplicateId);
+        notifyChange(Contact.buildContactUri(keepId));
+        notifyChange(Contact.buildContactUri(duplicateId));
+    }
+
+    // Записывает время удаления deletedAt (null - восстановление) контактам ids
+    // в одной транзакции. Изменяются только контакты, которые еще не удалены
+    // (при восстановлении - уже удалены). Возвращает количество измененных строк.
+    private int setDeletedAt(long[] ids, Long deletedAt) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(Contact.COLUMN_DELETED_AT, deletedAt);
+        String state = Contact.COLUMN_DELETED_AT +
+                (deletedAt != null ? " IS NULL" : " IS NOT NULL");
+        int changedRows = 0;
+
+        db.beginTransactionNonExclusive();
+        try {
+            for (int start = 0; start < ids.length; start += MAX_IDS_PER_STATEMENT) {
+                int size = Math.min(MAX_IDS_PER_STATEMENT, ids.length - start);
+                StringBuilder where = new StringBuilder(state)
+                        .append(" AND ").append(Contact._ID).append(" IN (");
+                String[] whereArgs = new String[size];
+
+                for (int i = 0; i < size; i++) {
+                    where.append(i > 0 ? ",?" : "?");
+                    whereArgs[i] = String.valueOf(ids[start + i]);
+                }
+                where.append(')');
+
+                logChanges(db, where.toString(), whereArgs, true);
+                changedRows += db.update(Contact.TABLE_NAME, values,
+                        where.toString(), whereArgs);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        for (long id : ids)
+            contactCache.invalidate(id);
+        return changedRows;
+    }
+
+    // Применяет изменения с сервера в одной транзакции: контакт ищется по sync_id
+    // и обновляется, вставляется или удаляется. Изменения записываются в журнал
+    // как нелокальные. Собственные изменения клиента clientId только подтверждают
+    // локальные изменения; контакт с неподтвержденным локальным изменением
+    // не изменяется - в порядке сервера локальное изменение более позднее.
+    private int applyRemoteChanges(ArrayList<ContentValues> changes, String clientId) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int appliedRows = 0;
+
+        db.beginTransactionNonExclusive();
+        try {
+            for (ContentValues change : changes) {
+                String[] syncIdArgs = {change.getAsString(Contact.COLUMN_SYNC_ID)};
+                String where = Contact.COLUMN_SYNC_ID + "=?";
+
+                // Собственное изменение подтверждает запись журнала, если контакт
+                // с тех пор не изменялся; данные у клиента уже есть.
+                if (clientId != null &&
+                        clientId.equals(change.getAsString(Contact.CHANGE_COLUMN_ORIGIN))) {
+                    db.execSQL("UPDATE " + Contact.CHANGES_TABLE_NAME + " SET " +
+                                    Contact.CHANGE_COLUMN_LOCAL + " = 0 WHERE " + where +
+                                    " AND " + Contact.CHANGE_COLUMN_VERSION + " = ?",
+                            new Object[]{syncIdArgs[0],
+                                    change.getAsLong(Contact.CHANGE_COLUMN_VERSION)});
+                    continue;
+                }
+                if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " +
+                        Contact.CHANGES_TABLE_NAME + " WHERE " + where + " AND " +
+                        Contact.CHANGE_COLUMN_LOCAL + " != 0", syncIdArgs) != 0)
+                    continue;
+
+                Boolean deleted = change.getAsBoolean(Contact.CHANGE_COLUMN_DELETED);
+                if (deleted != null && deleted) {
+                    logChanges(db, where, syncIdArgs, false);
+                    appliedRows += db.delete(Contact.TABLE_NAME, where, syncIdArgs);
+                    continue;
+                }
+
+                // Столбцы данных; контакт, удаленный локально, восстанавливается.
+                ContentValues values = new ContentValues();
+                for (int i = 1; i < Contact.ALL_COLUMNS.length; i++)
+                    values.put(Contact.ALL_COLUMNS[i],
+                            change.getAsString(Contact.ALL_COLUMNS[i]));
+                values.putNull(Contact.COLUMN_DELETED_AT);
+                values = withDerivedColumns(values);
+
+                if (db.update(Contact.TABLE_NAME, values, where, syncIdArgs) == 0) {
+                    values.put(Contact.COLUMN_SYNC_ID, syncIdArgs[0]);
+                    db.insert(Contact.TABLE_NAME, null, values);
+                }
+                logChanges(db, where, syncIdArgs, false);
+                appliedRows++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (appliedRows != 0) {
+            contactCache.invalidateAll();
+            notifyChange(Contact.CONTENT_URI);
+        }
+        return appliedRows;
+    }
+
+    // Окончательно удаляет контакты, удаленные раньше чем UNDO_WINDOW_MS назад,
+    // или, если ids != null, удаленные контакты ids независимо от времени удаления.
+    // Строки удаляются порциями в отдельных транзакциях, чтобы не задерживать
+    // другие операции записи. Наблюдатели не оповещаются: эти контакты уже не
+    // возвращаются запросами.
+    private int purgeDeletedContacts(long[] ids) {
+        if (ids != null)
+            return purgeDeletedContacts(ids, dbHelper.getWritableDatabase());
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String[] whereArgs = {String.valueOf(
+                System.currentTimeMillis() - Contact.UNDO_WINDOW_MS)};
+        String where = Contact._ID + " IN (SELECT " + Contact._ID + " FROM " +
+                Contact.TABLE_NAME + " WHERE " + Contact.COLUMN_DELETED_AT + " <= ? LIMIT " +
+                MAX_IDS_PER_STATEMENT + ")";
+        int purgedRows = 0;
+        int batchRows;
+
+        do {
+            db.beginTransactionNonExclusive();
+            try {
+                batchRows = db.delete(Contact.TABLE_NAME, where, whereArgs);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            purgedRows += batchRows;
+        } while (batchRows > 0);
+
+        return purgedRows;
+    }
+
+    // Окончательно удаляет контакты ids, которые удалены и не восстановлены.
+    private int purgeDeletedContacts(long[] ids, SQLiteDatabase db) {
+        int purgedRows = 0;
+
+        for (int start = 0; start < ids.length; start += MAX_IDS_PER_STATEMENT) {
+            int size = Math.min(MAX_IDS_PER_STATEMENT, ids.length - start);
+            StringBuilder where = new StringBuilder(Contact.COLUMN_DELETED_AT)
+                    .append(" IS NOT NULL AND ").append(Contact._ID).append(" IN (");
+            String[] whereArgs = new String[size];
+
+            for (int i = 0; i < size; i++) {
+                where.append(i > 0 ? ",?" : "?");
+                whereArgs[i] = String.valueOf(ids[start + i]);
+            }
+            where.append(')');
+
+            db.beginTransactionNonExclusive();
+            try {
+                purgedRows += db.delete(Contact.TABLE_NAME, where.toString(), whereArgs);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        return purgedRows;
+    }
+
+    // Bundle с количеством измененных строк.
+    private static Bundle rowsResult(int rows) {
+        Bundle result = new Bundle();
+        result.putInt(Contact.RESULT_ROWS, rows);
+        return result;
+    }
+
+    // Разбирает список идентификаторов через запятую.
+    private static long[] parseIds(String ids) {
+        if (ids.isEmpty())
+            return new long[0];
+
+        String[] parts = ids.split(",");
+        long[] parsed = new long[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            parsed[i] = Long.parseLong(parts[i].trim());
+        return parsed;
+    }
+
+    // Запись контакта или null, если контакта нет.
+    private static ContactRecord readContact(SQLiteDatabase db, String[] idArgs) {
+        Cursor cursor = db.query(Contact.TABLE_NAME, Contact.ALL_COLUMNS,
+                Contact._ID + "=? AND " + LIVE_CONTACTS, idArgs, null, null, null);
+        try {
+            return cursor.moveToFirst() ? ContactRecord.fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Метрики для adb shell dumpsys activity provider.
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        metrics.dump(writer);
+    }
+
     @Override
     public String getType(Uri uri) {
         return null;
     }
 
-    // Вставляем новый контакт в базу данных.
+    // Вставка с записью метрик.
     @Override
     public Uri insert(Uri uri,
                       ContentValues values) {
+        long start = System.nanoTime();
+        Uri newContactUri = insertContact(uri, values);
+        metrics.record(ProviderMetrics.INSERT, uriMatcher.match(uri), start, 1, 0);
+        return newContactUri;
+    }
+
+    // Вставляем новый контакт в базу данных.
+    private Uri insertContact(Uri uri,
+                              ContentValues values) {
 
         Uri newContactUri = null;
 
         switch (uriMatcher.match(uri)) {
             case CONTACTS:
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                long rowId;
+
+                // Контакт и запись журнала изменений вставляются в одной транзакции.
                 // При успехе возвращается идентификатор записи нового контакта.
-                long rowId = dbHelper.getWritableDatabase().insert(
-                        Contact.TABLE_NAME, null, values);
+                db.beginTransactionNonExclusive();
+                try {
+                    rowId = db.insert(Contact.TABLE_NAME, null,
+                            withSyncId(withDerivedColumns(values)));
+                    if (rowId > 0)
+                        logChange(db, rowId);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 // Если контакт был вставлен, создать подходящий Uri, если нет - выдать исключение.
                 if (rowId > 0) {
                     newContactUri = Contact.buildContactUri(rowId);
+                    // Идентификатор удаленного контакта может использоваться повторно.
+                    contactCache.invalidate(rowId);
 
-                    // Оповещаем наблюдателей об изменениях в базе данных.
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    // Оповещаем наблюдателей нового контакта; список получит
+                    // оповещение как наблюдатель всех Uri таблицы.
+                    notifyChange(newContactUri);
                 } else
                     throw new SQLException(
                             getContext().getString(R.string.insert_failed) + uri);
@@ -134,11 +806,22 @@ public class AddressBookContentProvider extends ContentProvider {
         return newContactUri;
     }
 
-    // Метод для удаления контакта из базы данных.
+    // Удаление с записью метрик.
     @Override
     public int delete(Uri uri,
                       String selection,
                       String[] selectionArgs) {
+        long start = System.nanoTime();
+        int numberOfRowsDeleted = deleteContacts(uri, selection, selectionArgs);
+        metrics.record(ProviderMetrics.DELETE, uriMatcher.match(uri), start,
+                numberOfRowsDeleted, 0);
+        return numberOfRowsDeleted;
+    }
+
+    // Метод для удаления контакта из базы данных.
+    private int deleteContacts(Uri uri,
+                               String selection,
+                               String[] selectionArgs) {
 
         int numberOfRowsDeleted;
 
@@ -147,10 +830,39 @@ public class AddressBookContentProvider extends ContentProvider {
                 // Получаем из URI идентификатор контакта.
                 String id = uri.getLastPathSegment();
 
-                // Удаляем контакт.
-                numberOfRowsDeleted = dbHelper.getWritableDatabase().delete(
-                        Contact.TABLE_NAME, Contact._ID + "=" + id,
-                        selectionArgs);
+                // Удаляем контакт. Без дополнительных условий используется
+                // заранее скомпилированная команда DELETE. Запись журнала
+                // изменений добавляется до удаления, пока известен sync_id,
+                // и откатывается, если контакт не удален.
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                db.beginTransactionNonExclusive();
+                try {
+                    logChange(db, Long.parseLong(id));
+                    if (selection == null)
+                        numberOfRowsDeleted = deleteContact(Long.parseLong(id));
+                    else
+                        numberOfRowsDeleted = db.delete(
+                                Contact.TABLE_NAME, Contact._ID + "=? AND (" + selection + ")",
+                                prependArgument(id, selectionArgs));
+                    if (numberOfRowsDeleted != 0)
+                        db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                contactCache.invalidate(ContentUris.parseId(uri));
+                break;
+            // Мягкое удаление набора контактов одной транзакцией.
+            case CONTACTS:
+                String ids = uri.getQueryParameter(Contact.PARAM_IDS);
+
+                // Удаление всей таблицы без набора идентификаторов не поддерживается.
+                if (ids == null || selection != null)
+                    throw new UnsupportedOperationException(
+                            getContext().getString(R.string.invalid_delete_uri) + uri);
+
+                numberOfRowsDeleted = setDeletedAt(parseIds(ids), System.currentTimeMillis());
+                // Одно оповещение для всего набора.
+                uri = Contact.CONTENT_URI;
                 break;
 
                 default:
@@ -160,18 +872,30 @@ public class AddressBookContentProvider extends ContentProvider {
 
         // Оповещаем наблюдателей об изменениях в базе данных.
         if (numberOfRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return numberOfRowsDeleted;
     }
 
-    // Метод обновляет существующую запись.
+    // Обновление с записью метрик.
     @Override
     public int update(Uri uri,
                       ContentValues values,
                       String selection,
                       String[] selectionArgs) {
+        long start = System.nanoTime();
+        int numberOfRowsUpdated = updateContacts(uri, values, selection, selectionArgs);
+        metrics.record(ProviderMetrics.UPDATE, uriMatcher.match(uri), start,
+                numberOfRowsUpdated, 0);
+        return numberOfRowsUpdated;
+    }
+
+    // Метод обновляет существующую запись.
+    private int updateContacts(Uri uri,
+                               ContentValues values,
+                               String selection,
+                               String[] selectionArgs) {
 
         // 1 - если обновление успешно, 2 - при неудаче.
         int numberOfRowsUpdated;
@@ -181,10 +905,23 @@ public class AddressBookContentProvider extends ContentProvider {
                 // Получаем идентификатор из Uri.
                 String id = uri.getLastPathSegment();
 
-                // Обновляем контакт.
-                numberOfRowsUpdated = dbHelper.getWritableDatabase().update(
-                        Contact.TABLE_NAME, values, Contact._ID + "=" + id,
-                        selectionArgs);
+                // Обновляем контакт вместе с записью журнала изменений.
+                // Удаленный контакт, ожидающий окончательного удаления, не изменяется.
+                String where = Contact._ID + "=? AND " + LIVE_CONTACTS;
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                db.beginTransactionNonExclusive();
+                try {
+                    numberOfRowsUpdated = db.update(
+                            Contact.TABLE_NAME, withDerivedColumns(values),
+                            selection == null ? where : where + " AND (" + selection + ")",
+                            prependArgument(id, selectionArgs));
+                    if (numberOfRowsUpdated != 0)
+                        logChange(db, Long.parseLong(id));
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                contactCache.invalidate(ContentUris.parseId(uri));
                 break;
 
                 default:
@@ -194,9 +931,226 @@ public class AddressBookContentProvider extends ContentProvider {
 
         // Если изменения были внесены оповещаем наблюдателей.
         if (numberOfRowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return numberOfRowsUpdated;
     }
+
+    // Вставка массива контактов в одной транзакции.
+    // Транзакция IMMEDIATE в режиме WAL не блокирует читающие соединения.
+    // Команда INSERT компилируется один раз и используется повторно для каждой строки,
+    // наблюдатели оповещаются один раз после фиксации транзакции.
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = System.nanoTime();
+        int numberOfRowsInserted = bulkInsertContacts(uri, values);
+        metrics.record(ProviderMetrics.BULK_INSERT, uriMatcher.match(uri), start,
+                numberOfRowsInserted, 0);
+        return numberOfRowsInserted;
+    }
+
+    private int bulkInsertContacts(Uri uri, ContentValues[] values) {
+
+        if (uriMatcher.match(uri) != CONTACTS)
+            throw new UnsupportedOperationException(
+                    getContext().getString(R.string.invalid_insert_uri) + uri);
+
+        int numberOfRowsInserted = 0;
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement(buildInsertStatement());
+        SQLiteStatement logStatement = db.compileStatement("INSERT OR REPLACE INTO " +
+                Contact.CHANGES_TABLE_NAME + " (" + Contact.COLUMN_SYNC_ID + ", " +
+                Contact.CHANGE_COLUMN_LOCAL + ") VALUES (?, 1)");
+
+        db.beginTransactionNonExclusive();
+        try {
+            for (ContentValues contactValues : values) {
+                ContentValues insertValues = withSyncId(withDerivedColumns(contactValues));
+                bindContact(statement, insertValues);
+
+                if (statement.executeInsert() <= 0)
+                    throw new SQLException(
+                            getContext().getString(R.string.insert_failed) + uri);
+
+                logStatement.bindString(1, insertValues.getAsString(Contact.COLUMN_SYNC_ID));
+                logStatement.executeInsert();
+                numberOfRowsInserted++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+            logStatement.close();
+        }
+
+        // Одно оповещение на весь пакет.
+        if (numberOfRowsInserted != 0) {
+            notifyChange(uri);
+        }
+
+        return numberOfRowsInserted;
+    }
+
+    // Выполнение пакета операций в одной транзакции.
+    // Оповещения отдельных операций откладываются и заменяются одним общим.
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        long start = System.nanoTime();
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+
+        applyingBatch.set(Boolean.TRUE);
+        db.beginTransactionNonExclusive();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            applyingBatch.remove();
+        }
+
+        if (!operations.isEmpty()) {
+            notifyChange(Contact.CONTENT_URI);
+        }
+
+        metrics.record(ProviderMetrics.APPLY_BATCH, UriMatcher.NO_MATCH, start,
+                operations.size(), 0);
+        return results;
+    }
+
+    // Преобразует строку поиска в выражение MATCH: каждое слово ищется как префикс,
+    // слова объединяются условием И. Если column не null, поиск ограничивается столбцом.
+    // Возвращает null, если в строке нет ни одного слова.
+    private static String buildMatchExpression(String query, String column) {
+        if (query == null)
+            return null;
+
+        StringBuilder match = new StringBuilder();
+
+        for (String token : query.split("[^\\p{L}\\p{N}]+")) {
+            if (token.isEmpty())
+                continue;
+
+            if (match.length() > 0)
+                match.append(' ');
+            if (column != null)
+                match.append(column).append(':');
+            match.append(token).append('*');
+        }
+
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    // Оповещает наблюдателей, если текущий поток не выполняет пакет операций.
+    // Оповещения объединяются ChangeNotifier.
+    private void notifyChange(Uri uri) {
+        if (applyingBatch.get() == null) {
+            changeNotifier.notifyChange(uri);
+        }
+    }
+
+    // Удаление контакта повторно используемой скомпилированной командой.
+    // SQLiteStatement не допускает одновременного связывания из нескольких потоков.
+    private synchronized int deleteContact(long id) {
+        if (deleteContactStatement == null) {
+            deleteContactStatement = dbHelper.getWritableDatabase().compileStatement(
+                    "DELETE FROM " + Contact.TABLE_NAME + " WHERE " + Contact._ID + "=?");
+        }
+
+        deleteContactStatement.bindLong(1, id);
+        return deleteContactStatement.executeUpdateDelete();
+    }
+
+    // Добавляет идентификатор контакта перед аргументами условия selection.
+    private static String[] prependArgument(String id, String[] selectionArgs) {
+        if (selectionArgs == null || selectionArgs.length == 0)
+            return new String[]{id};
+
+        String[] arguments = new String[selectionArgs.length + 1];
+        arguments[0] = id;
+        System.arraycopy(selectionArgs, 0, arguments, 1, selectionArgs.length);
+        return arguments;
+    }
+
+    // Копия values с вычисляемыми столбцами: нормализованный номер телефона,
+    // ключи сортировки и раздела пересчитываются, если в values есть номер
+    // телефона или имя.
+    private static ContentValues withDerivedColumns(ContentValues values) {
+        if (values == null || !(values.containsKey(Contact.COLUMN_PHONE) ||
+                values.containsKey(Contact.COLUMN_NAME)))
+            return values;
+
+        ContentValues derived = new ContentValues(values);
+        if (values.containsKey(Contact.COLUMN_PHONE))
+            derived.put(Contact.COLUMN_PHONE_KEY,
+                    PhoneNumbers.normalize(values.getAsString(Contact.COLUMN_PHONE)));
+        if (values.containsKey(Contact.COLUMN_NAME)) {
+            String name = values.getAsString(Contact.COLUMN_NAME);
+            derived.put(Contact.COLUMN_SORT_KEY, SortKeys.forName(name));
+            derived.put(Contact.COLUMN_SECTION_KEY, SortKeys.sectionForName(name));
+        }
+        return derived;
+    }
+
+    // Копия values с новым глобальным идентификатором, если он не передан.
+    private static ContentValues withSyncId(ContentValues values) {
+        if (values != null && values.getAsString(Contact.COLUMN_SYNC_ID) != null)
+            return values;
+
+        ContentValues withId = values != null ? new ContentValues(values) : new ContentValues();
+        withId.put(Contact.COLUMN_SYNC_ID, UUID.randomUUID().toString());
+        return withId;
+    }
+
+    // Записывает в журнал изменений новую версию контактов, отобранных условием
+    // where; local = false для изменений, полученных с сервера. Вызывается в
+    // транзакции изменения, для удаления - до удаления строки.
+    private static void logChanges(SQLiteDatabase db, String where, String[] whereArgs,
+                                   boolean local) {
+        db.execSQL("INSERT OR REPLACE INTO " + Contact.CHANGES_TABLE_NAME + " (" +
+                Contact.COLUMN_SYNC_ID + ", " + Contact.CHANGE_COLUMN_LOCAL + ") SELECT " +
+                Contact.COLUMN_SYNC_ID + ", " + (local ? 1 : 0) + " FROM " +
+                Contact.TABLE_NAME + " WHERE " + where, whereArgs);
+    }
+
+    // Записывает в журнал локальное изменение одного контакта.
+    private static void logChange(SQLiteDatabase db, long id) {
+        logChanges(db, Contact._ID + "=?", new String[]{String.valueOf(id)}, true);
+    }
+
+    // Команда INSERT со связываемыми параметрами для всех столбцов INSERT_COLUMNS.
+    private static String buildInsertStatement() {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(Contact.TABLE_NAME).append(" (");
+        StringBuilder parameters = new StringBuilder();
+
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+                parameters.append(", ");
+            }
+            sql.append(INSERT_COLUMNS[i]);
+            parameters.append('?');
+        }
+
+        return sql.append(") VALUES (").append(parameters).append(')').toString();
+    }
+
+    // Связывает значения контакта с параметрами скомпилированной команды.
+    // Отсутствующие столбцы записываются как NULL, как и при вызове insert.
+    private static void bindContact(SQLiteStatement statement, ContentValues values) {
+        statement.clearBindings();
+
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            String value = values.getAsString(INSERT_COLUMNS[i]);
+
+            if (value != null)
+                statement.bindString(i + 1, value);
+            else
+                statement.bindNull(i + 1);
+        }
+    }
 }
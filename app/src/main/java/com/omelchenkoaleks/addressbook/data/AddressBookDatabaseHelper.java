@@ -1,8 +1,10 @@
 package com.omelchenkoaleks.addressbook.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
 import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
 
@@ -13,7 +15,196 @@ import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
 public class AddressBookDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "AddressBook.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 8;
+
+    // Размер кеша страниц основного соединения (в страницах); см. onOpen.
+    private static final int CACHE_SIZE_PAGES = 2000;
+
+    /**
+     * Шаг обновления схемы базы данных на одну версию.
+     */
+    private interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    // Шаги обновления схемы: MIGRATIONS[i] переводит базу данных
+    // с версии i + 1 на версию i + 2. Новые шаги добавляются только в конец.
+    private static final Migration[] MIGRATIONS = {
+            // Версия 2: полнотекстовый индекс для поиска контактов.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    createSearchIndex(db);
+                    db.execSQL("INSERT INTO " + Contact.SEARCH_TABLE_NAME + "(docid, " +
+                            SEARCH_COLUMNS + ") SELECT " + Contact._ID + ", " +
+                            SEARCH_COLUMNS + " FROM " + Contact.TABLE_NAME);
+                }
+            },
+            // Версия 3: индексы для сортировки по имени и поиска по телефону и почте.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + Contact.TABLE_NAME + "_name_idx ON " +
+                            Contact.TABLE_NAME + "(" + Contact.COLUMN_NAME +
+                            " COLLATE NOCASE);");
+                    db.execSQL("CREATE INDEX " + Contact.TABLE_NAME + "_phone_idx ON " +
+                            Contact.TABLE_NAME + "(" + Contact.COLUMN_PHONE + ");");
+                    db.execSQL("CREATE INDEX " + Contact.TABLE_NAME + "_email_idx ON " +
+                            Contact.TABLE_NAME + "(" + Contact.COLUMN_EMAIL + ");");
+                }
+            },
+            // Версия 4: нормализованный номер телефона с индексом для поиска по номеру.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + Contact.TABLE_NAME + " ADD COLUMN " +
+                            Contact.COLUMN_PHONE_KEY + " TEXT;");
+                    db.execSQL("CREATE INDEX " + Contact.TABLE_NAME + "_phone_key_idx ON " +
+                            Contact.TABLE_NAME + "(" + Contact.COLUMN_PHONE_KEY + ");");
+
+                    // Ключи существующих контактов вычисляются так же, как в провайдере.
+                    SQLiteStatement update = db.compileStatement("UPDATE " +
+                            Contact.TABLE_NAME + " SET " + Contact.COLUMN_PHONE_KEY +
+                            " = ? WHERE " + Contact._ID + " = ?");
+                    Cursor cursor = db.query(Contact.TABLE_NAME,
+                            new String[]{Contact._ID, Contact.COLUMN_PHONE},
+                            Contact.COLUMN_PHONE + " IS NOT NULL", null, null, null, null);
+                    try {
+                        while (cursor.moveToNext()) {
+                            String phoneKey = PhoneNumbers.normalize(cursor.getString(1));
+                            if (phoneKey == null)
+                                continue;
+
+                            update.bindString(1, phoneKey);
+                            update.bindLong(2, cursor.getLong(0));
+                            update.executeUpdateDelete();
+                        }
+                    } finally {
+                        cursor.close();
+                        update.close();
+                    }
+                }
+            },
+            // Версия 5: время мягкого удаления. Индекс используется для подсчета
+            // контактов и окончательного удаления; запросы списка его не используют
+            // (см. AddressBookContentProvider.LIVE_CONTACTS). Полнотекстовый индекс
+            // обновляется только при изменении индексируемых столбцов, поэтому
+            // удаление и восстановление его не затрагивают.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + Contact.TABLE_NAME + " ADD COLUMN " +
+                            Contact.COLUMN_DELETED_AT + " INTEGER;");
+                    db.execSQL("CREATE INDEX " + Contact.TABLE_NAME + "_deleted_idx ON " +
+                            Contact.TABLE_NAME + "(" + Contact.COLUMN_DELETED_AT + ");");
+
+                    db.execSQL("DROP TRIGGER " + Contact.SEARCH_TABLE_NAME + "_au;");
+                    db.execSQL("CREATE TRIGGER " + Contact.SEARCH_TABLE_NAME +
+                            "_au AFTER UPDATE OF " + SEARCH_COLUMNS + " ON " +
+                            Contact.TABLE_NAME + " BEGIN " + deleteOldSearchRow() + " " +
+                            insertNewSearchRow() + " END;");
+                }
+            },
+            // Версия 6: глобальные идентификаторы контактов и журнал изменений
+            // для синхронизации. Все существующие контакты попадают в журнал как
+            // локальные изменения, чтобы первая синхронизация отправила их на сервер.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + Contact.TABLE_NAME + " ADD COLUMN " +
+                            Contact.COLUMN_SYNC_ID + " TEXT;");
+                    db.execSQL("UPDATE " + Contact.TABLE_NAME + " SET " +
+                            Contact.COLUMN_SYNC_ID + " = lower(hex(randomblob(16)));");
+                    db.execSQL("CREATE UNIQUE INDEX " + Contact.TABLE_NAME +
+                            "_sync_id_idx ON " + Contact.TABLE_NAME + "(" +
+                            Contact.COLUMN_SYNC_ID + ");");
+
+                    // Строка журнала определяется sync_id, а не _id, который SQLite
+                    // может назначить повторно после удаления последнего контакта.
+                    // AUTOINCREMENT гарантирует, что версии не используются повторно.
+                    db.execSQL("CREATE TABLE " + Contact.CHANGES_TABLE_NAME + "(" +
+                            Contact.CHANGE_COLUMN_VERSION +
+                            " INTEGER PRIMARY KEY AUTOINCREMENT, " + Contact.COLUMN_SYNC_ID + " TEXT NOT NULL UNIQUE, " +
+                            Contact.CHANGE_COLUMN_LOCAL + " INTEGER NOT NULL);");
+                    db.execSQL("INSERT INTO " + Contact.CHANGES_TABLE_NAME + "(" +
+                            Contact.COLUMN_SYNC_ID + ", " + Contact.CHANGE_COLUMN_LOCAL +
+                            ") SELECT " + Contact.COLUMN_SYNC_ID + ", 1 FROM " +
+                            Contact.TABLE_NAME + ";");
+                }
+            },
+            // Версия 7: ключи сортировки имен по правилам языка вместо
+            // COLLATE NOCASE. Ключи существующих контактов вычисляются в фоне
+            // (SortKeys.updateBatch), до этого контакты без ключа идут в начале списка.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + Contact.TABLE_NAME + " ADD COLUMN " +
+                            Contact.COLUMN_SORT_KEY + " TEXT;");
+                    db.execSQL("CREATE INDEX " + Contact.TABLE_NAME + "_sort_key_idx ON " +
+                            Contact.TABLE_NAME + "(" + Contact.COLUMN_SORT_KEY + ");");
+                    db.execSQL("DROP INDEX " + Contact.TABLE_NAME + "_name_idx;");
+
+                    db.execSQL("CREATE TABLE " + SortKeys.STATE_TABLE_NAME + "(" +
+                            SortKeys.STATE_COLUMN_LOCALE + " TEXT, " +
+                            SortKeys.STATE_COLUMN_TARGET_LOCALE + " TEXT, " +
+                            SortKeys.STATE_COLUMN_PROGRESS + " INTEGER NOT NULL);");
+                    db.execSQL("INSERT INTO " + SortKeys.STATE_TABLE_NAME + "(" +
+                            SortKeys.STATE_COLUMN_PROGRESS + ") VALUES (0);");
+                }
+            },
+            // Версия 8: ключ раздела алфавитного указателя и таблица количества
+            // контактов в разделах, которую поддерживают триггеры, вместо прохода
+            // по всем контактам при каждом запросе указателя. Ключи существующих
+            // контактов вычисляются сразу, так же как в провайдере.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + Contact.TABLE_NAME + " ADD COLUMN " +
+                            Contact.COLUMN_SECTION_KEY + " TEXT;");
+
+                    SQLiteStatement update = db.compileStatement("UPDATE " +
+                            Contact.TABLE_NAME + " SET " + Contact.COLUMN_SECTION_KEY +
+                            " = ? WHERE " + Contact._ID + " = ?");
+                    Cursor cursor = db.query(Contact.TABLE_NAME,
+                            new String[]{Contact._ID, Contact.COLUMN_NAME},
+                            null, null, null, null, null);
+                    try {
+                        while (cursor.moveToNext()) {
+                            update.bindString(1, SortKeys.sectionForName(cursor.getString(1)));
+                            update.bindLong(2, cursor.getLong(0));
+                            update.executeUpdateDelete();
+                        }
+                    } finally {
+                        cursor.close();
+                        update.close();
+                    }
+
+                    db.execSQL("CREATE TABLE " + SortKeys.SECTIONS_TABLE_NAME + "(" +
+                            Contact.COLUMN_SECTION_KEY + " TEXT PRIMARY KEY, " +
+                            SortKeys.SECTIONS_COLUMN_LABEL + " TEXT, " +
+                            SortKeys.SECTIONS_COLUMN_COUNT + " INTEGER NOT NULL);");
+                    db.execSQL("INSERT INTO " + SortKeys.SECTIONS_TABLE_NAME + " SELECT " +
+                            Contact.COLUMN_SECTION_KEY + ", substr(MIN(" +
+                            Contact.COLUMN_NAME + "), 1, 1), COUNT(*) FROM " +
+                            Contact.TABLE_NAME + " WHERE " + Contact.COLUMN_DELETED_AT +
+                            " IS NULL GROUP BY " + Contact.COLUMN_SECTION_KEY + ";");
+
+                    // Мягкое удаление и восстановление меняют только deleted_at,
+                    // переименование и пересчет после смены языка - section_key.
+                    db.execSQL("CREATE TRIGGER " + SortKeys.SECTIONS_TABLE_NAME +
+                            "_ai AFTER INSERT ON " + Contact.TABLE_NAME + " BEGIN " +
+                            SortKeys.addToSection("new") + " END;");
+                    db.execSQL("CREATE TRIGGER " + SortKeys.SECTIONS_TABLE_NAME +
+                            "_au AFTER UPDATE OF " + Contact.COLUMN_SECTION_KEY + ", " +
+                            Contact.COLUMN_DELETED_AT + " ON " + Contact.TABLE_NAME +
+                            " BEGIN " + SortKeys.removeFromSection("old") + " " +
+                            SortKeys.addToSection("new") + " END;");
+                    db.execSQL("CREATE TRIGGER " + SortKeys.SECTIONS_TABLE_NAME +
+                            "_ad AFTER DELETE ON " + Contact.TABLE_NAME + " BEGIN " +
+                            SortKeys.removeFromSection("old") + " END;");
+                }
+            }
+    };
 
     /**
      * Конструктор.
@@ -27,6 +218,8 @@ public class AddressBookDatabaseHelper extends SQLiteOpenHelper {
     }
 
     // Создаем таблицу contacts при создании базы данных.
+    // Новая база данных создается в схеме версии 1 и доводится до текущей версии
+    // теми же шагами, что и существующие базы данных.
     @Override
     public void onCreate(SQLiteDatabase db) {
 
@@ -39,11 +232,77 @@ public class AddressBookDatabaseHelper extends SQLiteOpenHelper {
                         " TEXT, " + Contact.COLUMN_STATE + " TEXT, " + Contact.COLUMN_ZIP + " TEXT);";
         // Создаем таблицу contacts.
         db.execSQL(CREATE_CONTACTS_TABLE);
+
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
-    // В этом методе обычно определяется способ обновления при изменении схемы базы данных.
+    // Настройка базы данных при каждом открытии.
+    // В режиме WAL чтение не ждет окончания записи: SQLiteDatabase открывает пул
+    // соединений, и запросы списка из других потоков выполняются параллельно
+    // с пакетной вставкой. synchronous = NORMAL в режиме WAL сохраняет
+    // целостность базы и не синхронизирует диск при каждой фиксации.
+    // execSQL выполняет PRAGMA только на основном соединении, через которое
+    // идут все записи и запросы вне пула; соединения чтения из пула открываются
+    // позже с настройками SQLiteDatabase по умолчанию. До API 28 (OpenParams)
+    // настроить каждое соединение нельзя: для synchronous этого достаточно,
+    // потому что фиксирует транзакции только основное соединение, а больший
+    // кеш страниц получают только запросы основного соединения.
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        if (!db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+            db.execSQL("PRAGMA synchronous = NORMAL");
+            db.execSQL("PRAGMA cache_size = " + CACHE_SIZE_PAGES);
+        }
+    }
+
+    // Последовательно выполняет шаги обновления от oldVersion до newVersion.
+    // SQLiteOpenHelper вызывает метод внутри транзакции, поэтому при ошибке
+    // база данных остается в старой версии без потери данных.
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // В нашем приложении обновлять базу данных не нужно будет, поэтому этот метод пуст.
+        for (int version = oldVersion; version < newVersion; version++) {
+            MIGRATIONS[version - 1].migrate(db);
+        }
+    }
+
+    // Столбцы contacts, которые попадают в полнотекстовый индекс.
+    private static final String SEARCH_COLUMNS =
+            Contact.COLUMN_NAME + ", " + Contact.COLUMN_PHONE + ", " +
+                    Contact.COLUMN_EMAIL + ", " + Contact.COLUMN_STREET + ", " +
+                    Contact.COLUMN_CITY;
+
+    // Создает таблицу FTS4 и триггеры, которые синхронизируют ее с contacts.
+    // docid таблицы поиска совпадает с _id контакта.
+    private static void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + Contact.SEARCH_TABLE_NAME +
+                " USING fts4(" + SEARCH_COLUMNS + ");");
+
+        final String insertNewRow = insertNewSearchRow();
+        final String deleteOldRow = deleteOldSearchRow();
+
+        db.execSQL("CREATE TRIGGER " + Contact.SEARCH_TABLE_NAME + "_ai AFTER INSERT ON " +
+                Contact.TABLE_NAME + " BEGIN " + insertNewRow + " END;");
+        db.execSQL("CREATE TRIGGER " + Contact.SEARCH_TABLE_NAME + "_au AFTER UPDATE ON " +
+                Contact.TABLE_NAME + " BEGIN " + deleteOldRow + " " + insertNewRow + " END;");
+        db.execSQL("CREATE TRIGGER " + Contact.SEARCH_TABLE_NAME + "_ad AFTER DELETE ON " +
+                Contact.TABLE_NAME + " BEGIN " + deleteOldRow + " END;");
+    }
+
+    // Команда триггера, добавляющая новую строку contacts в полнотекстовый индекс.
+    private static String insertNewSearchRow() {
+        return "INSERT INTO " + Contact.SEARCH_TABLE_NAME +
+                "(docid, " + SEARCH_COLUMNS + ") VALUES (new." + Contact._ID + ", new." +
+                Contact.COLUMN_NAME + ", new." + Contact.COLUMN_PHONE + ", new." +
+                Contact.COLUMN_EMAIL + ", new." + Contact.COLUMN_STREET + ", new." +
+                Contact.COLUMN_CITY + ");";
+    }
+
+    // Команда триггера, удаляющая старую строку contacts из полнотекстового индекса.
+    private static String deleteOldSearchRow() {
+        return "DELETE FROM " + Contact.SEARCH_TABLE_NAME +
+                " WHERE docid = old." + Contact._ID + ";";
     }
 }
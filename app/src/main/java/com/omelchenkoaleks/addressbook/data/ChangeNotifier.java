@@ -0,0 +1,89 @@
+package com.omelchenkoaleks.addressbook.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Объединяет оповещения AddressBookContentProvider об изменениях.
+ * Оповещения, поступившие в течение COALESCE_WINDOW_MS, отправляются одной
+ * порцией: по одному на каждый измененный контакт, а если контактов больше
+ * MAX_ROW_URIS или изменилась вся таблица - одно оповещение для таблицы.
+ * Поэтому серия из тысячи изменений при синхронизации перезагружает список один раз.
+ */
+class ChangeNotifier {
+
+    // Окно объединения оповещений.
+    static final long COALESCE_WINDOW_MS = 100;
+
+    // Больше измененных контактов в одном окне - оповещение для всей таблицы.
+    static final int MAX_ROW_URIS = 32;
+
+    private final ContentResolver contentResolver;
+    private final Handler handler;
+
+    // Uri измененных контактов, ожидающие отправки.
+    private final Set<Uri> pendingUris = new LinkedHashSet<>();
+    private boolean tableChanged;
+    private boolean flushScheduled;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            List<Uri> uris;
+            boolean notifyTable;
+
+            synchronized (ChangeNotifier.this) {
+                uris = new ArrayList<>(pendingUris);
+                notifyTable = tableChanged;
+                pendingUris.clear();
+                tableChanged = false;
+                flushScheduled = false;
+            }
+
+            // Оповещение таблицы получают и наблюдатели отдельных контактов.
+            if (notifyTable) {
+                contentResolver.notifyChange(Contact.CONTENT_URI, null);
+            } else {
+                for (Uri uri : uris)
+                    contentResolver.notifyChange(uri, null);
+            }
+        }
+    };
+
+    // Конструктор.
+    ChangeNotifier(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+
+        HandlerThread thread = new HandlerThread("AddressBookChangeNotifier");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    // Запоминает изменение uri и планирует отправку оповещений по окончании окна.
+    synchronized void notifyChange(Uri uri) {
+        if (uri.equals(Contact.CONTENT_URI)) {
+            tableChanged = true;
+        } else if (!tableChanged) {
+            pendingUris.add(uri);
+            if (pendingUris.size() > MAX_ROW_URIS)
+                tableChanged = true;
+        }
+
+        if (tableChanged)
+            pendingUris.clear();
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flush, COALESCE_WINDOW_MS);
+        }
+    }
+}
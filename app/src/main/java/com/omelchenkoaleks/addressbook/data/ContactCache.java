@@ -0,0 +1,64 @@
+package com.omelchenkoaleks.addressbook.data;
+
+import android.os.Bundle;
+import android.util.LruCache;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+/**
+ * Кеш записей контактов в памяти процесса.
+ * Используется AddressBookContentProvider для запросов одного контакта, чтобы
+ * DetailFragment и AddEditFragment не читали одну и ту же строку из SQLite дважды,
+ * а также ContactPrefetcher для заранее загруженных записей в процессе приложения.
+ * Записи хранятся как неизменяемые ContactRecord; при переполнении
+ * удаляются записи, к которым дольше всего не обращались.
+ */
+class ContactCache {
+
+    // Максимальное количество контактов в кеше.
+    private static final int MAX_ENTRIES = 500;
+
+    private final LruCache<Long, ContactRecord> cache = new LruCache<>(MAX_ENTRIES);
+
+    // Увеличивается при каждой инвалидации. Строка, прочитанная из базы данных
+    // до инвалидации, в кеш не попадает.
+    private long version;
+
+    // Текущая версия кеша; запоминается перед чтением строки из базы данных.
+    synchronized long version() {
+        return version;
+    }
+
+    // Запись контакта или null, если контакта нет в кеше.
+    synchronized ContactRecord get(long id) {
+        return cache.get(id);
+    }
+
+    // Сохраняет запись, если с момента получения readVersion кеш не инвалидировался.
+    synchronized void put(long id, ContactRecord record, long readVersion) {
+        if (readVersion == version)
+            cache.put(id, record);
+    }
+
+    // Удаляет контакт из кеша после его изменения или удаления.
+    synchronized void invalidate(long id) {
+        version++;
+        cache.remove(id);
+    }
+
+    // Очищает кеш после изменения нескольких контактов.
+    synchronized void invalidateAll() {
+        version++;
+        cache.evictAll();
+    }
+
+    // Статистика кеша для настройки его размера.
+    synchronized Bundle stats() {
+        Bundle stats = new Bundle();
+        stats.putInt(Contact.STATS_CACHE_SIZE, cache.size());
+        stats.putInt(Contact.STATS_CACHE_HITS, cache.hitCount());
+        stats.putInt(Contact.STATS_CACHE_MISSES, cache.missCount());
+        stats.putInt(Contact.STATS_CACHE_EVICTIONS, cache.evictionCount());
+        return stats;
+    }
+}
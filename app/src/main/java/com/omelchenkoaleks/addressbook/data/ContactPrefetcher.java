@@ -0,0 +1,213 @@
+package com.omelchenkoaleks.addressbook.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Process;
+import android.text.TextUtils;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Заранее загружает полные записи контактов, строки которых видны в списке
+ * или находятся рядом с ним, чтобы DetailFragment отображал контакт сразу,
+ * без ожидания CursorLoader.
+ * Записи читаются порциями одним запросом в фоновом потоке с низким приоритетом
+ * и хранятся в ContactCache. ContactWriteQueue удаляет записи измененных
+ * контактов сразу после записи; кеш также очищается по оповещениям об изменениях
+ * контактов из других источников (синхронизация, импорт).
+ * Также собирает гистограмму времени от выбора контакта до его отображения.
+ */
+public class ContactPrefetcher {
+
+    // Максимальное количество контактов в одном запросе.
+    private static final int BATCH_SIZE = 50;
+
+    // Больше ожидающих контактов - самые старые запросы отбрасываются:
+    // при быстрой прокрутке их строки уже ушли с экрана.
+    private static final int MAX_PENDING = 2 * BATCH_SIZE;
+
+    // Контакт отображен из заранее загруженной записи или после загрузки.
+    private static final int PREFETCHED = 0;
+    private static final int LOADED = 1;
+    private static final String[] RESULT_NAMES = {"prefetched", "loaded"};
+
+    // Ключ метрик времени до отображения контакта в Bundle.
+    public static final String METRIC_TIME_TO_DETAIL = "time_to_detail";
+
+    private static ContactPrefetcher instance;
+
+    private final ContentResolver contentResolver;
+    private final ContactCache cache = new ContactCache();
+    private final AtomicLongArray timeToDetail =
+            new AtomicLongArray(RESULT_NAMES.length * LatencyHistogram.SLOTS);
+
+    // Поток загрузки не мешает главному потоку и ContactsPager.
+    private final Executor executor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "ContactPrefetcher");
+                }
+            });
+
+    // Контакты, которые нужно загрузить, в порядке запроса.
+    private final Set<Long> pendingIds = new LinkedHashSet<>();
+    private boolean loadScheduled;
+
+    private final Runnable loadPending = new Runnable() {
+        @Override
+        public void run() {
+            while (loadBatch()) {
+                // Загрузка продолжается, пока есть ожидающие контакты.
+            }
+        }
+    };
+
+    // Удаляет из кеша измененные контакты. Оповещение для одного контакта
+    // удаляет только его, остальные оповещения очищают весь кеш.
+    private final ContentObserver contactsObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            cache.invalidateAll();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            List<String> segments = uri != null ? uri.getPathSegments() : null;
+
+            if (segments != null && segments.size() == 2 &&
+                    TextUtils.isDigitsOnly(segments.get(1)))
+                cache.invalidate(Long.parseLong(segments.get(1)));
+            else
+                cache.invalidateAll();
+        }
+    };
+
+    // Загрузчик один на процесс.
+    public static synchronized ContactPrefetcher getInstance(Context context) {
+        if (instance == null)
+            instance = new ContactPrefetcher(
+                    context.getApplicationContext().getContentResolver());
+        return instance;
+    }
+
+    ContactPrefetcher(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+        contentResolver.registerContentObserver(Contact.CONTENT_URI, true, contactsObserver);
+    }
+
+    // Ставит контакт в очередь загрузки, если его еще нет в кеше.
+    public void prefetch(long id) {
+        if (cache.get(id) != null)
+            return;
+
+        synchronized (pendingIds) {
+            // Повторный запрос переносит контакт в конец очереди.
+            pendingIds.remove(id);
+            pendingIds.add(id);
+
+            if (pendingIds.size() > MAX_PENDING) {
+                Iterator<Long> oldest = pendingIds.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+
+            if (loadScheduled)
+                return;
+            loadScheduled = true;
+        }
+        executor.execute(loadPending);
+    }
+
+    // Удаляет запись контакта из кеша после его изменения (вызывается
+    // ContactWriteQueue до передачи результата, поэтому следующий
+    // DetailFragment не отображает старую запись). Загрузка, начатая до
+    // изменения, запись в кеш не возвращает (см. ContactCache.version).
+    void invalidate(long id) {
+        cache.invalidate(id);
+    }
+
+    // Запись контакта или null, если контакт еще не загружен.
+    // Не обращается к базе данных.
+    public ContactRecord getContact(long id) {
+        return cache.get(id);
+    }
+
+    // Записывает время от выбора контакта (selectedAtNanos - значение
+    // System.nanoTime()) до его отображения; prefetched - контакт отображен
+    // из заранее загруженной записи.
+    public void recordTimeToDetail(long selectedAtNanos, boolean prefetched) {
+        LatencyHistogram.record(timeToDetail, (prefetched ? PREFETCHED : LOADED) *
+                LatencyHistogram.SLOTS, System.nanoTime() - selectedAtNanos);
+    }
+
+    // Снимок метрик: ключи "time_to_detail/prefetched" и "time_to_detail/loaded"
+    // и массивы long[] из гистограммы (корзина i - до 2^i микросекунд),
+    // количества и суммарного времени в наносекундах.
+    public Bundle metrics() {
+        Bundle metrics = new Bundle();
+
+        for (int result = 0; result < RESULT_NAMES.length; result++) {
+            long[] values = new long[LatencyHistogram.SLOTS];
+            for (int i = 0; i < values.length; i++)
+                values[i] = timeToDetail.get(result * LatencyHistogram.SLOTS + i);
+            metrics.putLongArray(METRIC_TIME_TO_DETAIL + "/" + RESULT_NAMES[result], values);
+        }
+        return metrics;
+    }
+
+    // Загружает одну порцию ожидающих контактов; false, если очередь пуста.
+    private boolean loadBatch() {
+        long[] ids;
+        synchronized (pendingIds) {
+            if (pendingIds.isEmpty()) {
+                loadScheduled = false;
+                return false;
+            }
+
+            ids = new long[Math.min(pendingIds.size(), BATCH_SIZE)];
+            Iterator<Long> iterator = pendingIds.iterator();
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = iterator.next();
+                iterator.remove();
+            }
+        }
+
+        // Строка, прочитанная до изменения контакта, в кеш не попадает.
+        long readVersion = cache.version();
+        Cursor cursor = contentResolver.query(Contact.buildContactsUri(ids),
+                Contact.ALL_COLUMNS, null, null, null);
+        if (cursor == null)
+            return true;
+
+        try {
+            ContactRecord.Columns columns = ContactRecord.columnsOf(cursor);
+            while (cursor.moveToNext()) {
+                ContactRecord record = columns.read(cursor);
+                cache.put(record.getId(), record, readVersion);
+            }
+        } finally {
+            cursor.close();
+        }
+        return true;
+    }
+}
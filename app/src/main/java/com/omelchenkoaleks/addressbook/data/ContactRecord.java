@@ -0,0 +1,143 @@
+package com.omelchenkoaleks.addressbook.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Неизменяемая запись одного контакта: значения столбцов Contact.ALL_COLUMNS.
+ * Из записи заполняют представления DetailFragment и AddEditFragment, ее хранят
+ * ContactCache и ContactPrefetcher и записывает в файл ContactExporter.
+ * Индексы столбцов курсора определяются один раз для каждого набора столбцов
+ * (Columns), поэтому чтение строки - только вызовы getString по готовым индексам.
+ */
+public final class ContactRecord {
+
+    /**
+     * Индексы столбцов Contact.ALL_COLUMNS в курсорах с одним набором столбцов.
+     */
+    public static final class Columns {
+
+        // indexes[i] - индекс столбца Contact.ALL_COLUMNS[i] в курсоре или -1.
+        private final int[] indexes = new int[Contact.ALL_COLUMNS.length];
+
+        private Columns(String[] columnNames) {
+            List<String> names = Arrays.asList(columnNames);
+            for (int i = 0; i < indexes.length; i++)
+                indexes[i] = names.indexOf(Contact.ALL_COLUMNS[i]);
+        }
+
+        // Запись из текущей строки курсора; отсутствующие в курсоре столбцы пусты.
+        public ContactRecord read(Cursor cursor) {
+            String[] values = new String[indexes.length];
+            for (int i = 0; i < values.length; i++)
+                values[i] = indexes[i] >= 0 ? cursor.getString(indexes[i]) : null;
+            return new ContactRecord(values);
+        }
+    }
+
+    // Индексы столбцов по набору имен столбцов курсора. Наборов немного:
+    // это проекции, заданные в коде приложения.
+    private static final Map<List<String>, Columns> COLUMNS = new HashMap<>();
+
+    // Значения в порядке Contact.ALL_COLUMNS; values[0] - _id.
+    private final String[] values;
+
+    private ContactRecord(String[] values) {
+        this.values = values;
+    }
+
+    // Индексы столбцов для курсоров с тем же набором столбцов, что у cursor.
+    public static Columns columnsOf(Cursor cursor) {
+        String[] columnNames = cursor.getColumnNames();
+        List<String> key = Arrays.asList(columnNames);
+
+        synchronized (COLUMNS) {
+            Columns columns = COLUMNS.get(key);
+            if (columns == null) {
+                columns = new Columns(columnNames);
+                COLUMNS.put(Arrays.asList(columnNames.clone()), columns);
+            }
+            return columns;
+        }
+    }
+
+    // Запись из текущей строки курсора. Для чтения многих строк одного курсора
+    // индексы лучше получить один раз методом columnsOf.
+    public static ContactRecord fromCursor(Cursor cursor) {
+        return columnsOf(cursor).read(cursor);
+    }
+
+    // Идентификатор контакта или -1, если его не было в курсоре.
+    public long getId() {
+        return values[0] != null ? Long.parseLong(values[0]) : -1;
+    }
+
+    public String getName() {
+        return values[1];
+    }
+
+    public String getPhone() {
+        return values[2];
+    }
+
+    public String getEmail() {
+        return values[3];
+    }
+
+    public String getStreet() {
+        return values[4];
+    }
+
+    public String getCity() {
+        return values[5];
+    }
+
+    public String getState() {
+        return values[6];
+    }
+
+    public String getZip() {
+        return values[7];
+    }
+
+    // Значение столбца с индексом column в Contact.ALL_COLUMNS.
+    public String get(int column) {
+        return values[column];
+    }
+
+    // Курсор из одной строки со столбцами projection (все столбцы, если null).
+    // Возвращает null, если проекция содержит столбец не из Contact.ALL_COLUMNS.
+    Cursor toCursor(String[] projection) {
+        if (projection == null)
+            projection = Contact.ALL_COLUMNS;
+
+        Object[] row = new Object[projection.length];
+
+        for (int i = 0; i < projection.length; i++) {
+            int column = indexOf(projection[i]);
+            if (column < 0)
+                return null;
+            row[i] = values[column];
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    // Индекс столбца в Contact.ALL_COLUMNS или -1.
+    private static int indexOf(String column) {
+        for (int i = 0; i < Contact.ALL_COLUMNS.length; i++) {
+            if (Contact.ALL_COLUMNS[i].equals(column))
+                return i;
+        }
+        return -1;
+    }
+}
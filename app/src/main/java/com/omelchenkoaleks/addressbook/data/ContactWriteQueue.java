@@ -0,0 +1,255 @@
+package com.omelchenkoaleks.addressbook.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Очередь изменений контактов, выполняемых вне главного потока.
+ * Все вставки, обновления и удаления выполняются по очереди в одном фоновом
+ * потоке, поэтому сохраняют порядок вызова. Обновления одного контакта, которые
+ * еще ждут в очереди, объединяются в одно: выполняется одна команда UPDATE
+ * с последними значениями столбцов. Удаление или восстановление контакта
+ * завершает объединение, поэтому следующее обновление выполняется после него.
+ * Записи измененных контактов удаляются из ContactPrefetcher до передачи
+ * результата: оповещение об изменении приходит с задержкой (ChangeNotifier).
+ * Результат передается Callback в главном потоке.
+ */
+public class ContactWriteQueue {
+
+    /**
+     * Получает результат изменения в главном потоке.
+     */
+    public interface Callback {
+
+        // contactUri - Uri вставленного или измененного контакта (null, если вставка
+        // не удалась), affectedRows - количество измененных строк.
+        void onWriteCompleted(Uri contactUri, int affectedRows);
+    }
+
+    // Ожидающее выполнения обновление одного контакта.
+    private static final class PendingUpdate {
+        final ContentValues values;
+        final List<Callback> callbacks = new ArrayList<>();
+
+        PendingUpdate(ContentValues values) {
+            this.values = values;
+        }
+    }
+
+    private static ContactWriteQueue instance;
+
+    private final ContentResolver contentResolver;
+    private final ContactPrefetcher prefetcher;
+    private final Executor executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Пересчитывает одну порцию ключей сортировки и ставит следующую порцию
+    // в конец очереди, поэтому изменения пользователя выполняются между порциями.
+    private final Runnable sortKeysTask = new Runnable() {
+        @Override
+        public void run() {
+            Bundle result = contentResolver.call(Contact.CONTENT_URI,
+                    Contact.METHOD_UPDATE_SORT_KEYS, null, null);
+
+            synchronized (sortKeysTask) {
+                sortKeysScheduled = result != null && !result.getBoolean(Contact.RESULT_DONE);
+                if (sortKeysScheduled)
+                    executor.execute(sortKeysTask);
+            }
+        }
+    };
+    private boolean sortKeysScheduled;
+
+    // Обновления, которые еще не начали выполняться и к которым можно добавить
+    // следующее обновление, по Uri контакта. Задачи ставятся в очередь под
+    // блокировкой этого объекта, чтобы порядок задач совпадал с порядком вызовов.
+    private final Map<Uri, PendingUpdate> pendingUpdates = new HashMap<>();
+
+    // Очередь одна на процесс.
+    public static synchronized ContactWriteQueue getInstance(Context context) {
+        if (instance == null)
+            instance = new ContactWriteQueue(context.getApplicationContext().getContentResolver(),
+                    ContactPrefetcher.getInstance(context));
+        return instance;
+    }
+
+    ContactWriteQueue(ContentResolver contentResolver, ContactPrefetcher prefetcher) {
+        this.contentResolver = contentResolver;
+        this.prefetcher = prefetcher;
+    }
+
+    // Вставка нового контакта.
+    public void insert(final ContentValues values, final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Uri newContactUri = contentResolver.insert(Contact.CONTENT_URI, values);
+                deliver(callback, newContactUri, newContactUri != null ? 1 : 0);
+            }
+        });
+    }
+
+    // Обновление контакта; объединяется с ожидающим обновлением того же контакта.
+    public void update(final Uri contactUri, ContentValues values, Callback callback) {
+        synchronized (pendingUpdates) {
+            PendingUpdate pending = pendingUpdates.get(contactUri);
+
+            if (pending != null) {
+                pending.values.putAll(values);
+                if (callback != null)
+                    pending.callbacks.add(callback);
+                return;
+            }
+
+            final PendingUpdate update = new PendingUpdate(new ContentValues(values));
+            if (callback != null)
+                update.callbacks.add(callback);
+            pendingUpdates.put(contactUri, update);
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // После начала выполнения новые обновления ставятся отдельно.
+                    synchronized (pendingUpdates) {
+                        if (pendingUpdates.get(contactUri) == update)
+                            pendingUpdates.remove(contactUri);
+                    }
+
+                    int updatedRows = contentResolver.update(
+                            contactUri, update.values, null, null);
+                    prefetcher.invalidate(ContentUris.parseId(contactUri));
+                    for (Callback updateCallback : update.callbacks)
+                        deliver(updateCallback, contactUri, updatedRows);
+                }
+            });
+        }
+    }
+
+    // Удаление контакта.
+    public void delete(final Uri contactUri, final Callback callback) {
+        synchronized (pendingUpdates) {
+            pendingUpdates.remove(contactUri);
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int deletedRows = contentResolver.delete(contactUri, null, null);
+                    prefetcher.invalidate(ContentUris.parseId(contactUri));
+                    deliver(callback, contactUri, deletedRows);
+                }
+            });
+        }
+    }
+
+    // Мягкое удаление набора контактов одной транзакцией. Контакты можно
+    // восстановить методом restore, пока отображается предложение отменить
+    // удаление; после его закрытия они удаляются окончательно методом purge.
+    public void delete(final long[] ids, final Callback callback) {
+        synchronized (pendingUpdates) {
+            closeUpdates(ids);
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int deletedRows = contentResolver.delete(
+                            Contact.buildContactsUri(ids), null, null);
+                    for (long id : ids)
+                        prefetcher.invalidate(id);
+                    deliver(callback, Contact.CONTENT_URI, deletedRows);
+                }
+            });
+        }
+    }
+
+    // Восстановление удаленных контактов.
+    public void restore(final long[] ids, final Callback callback) {
+        synchronized (pendingUpdates) {
+            closeUpdates(ids);
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Bundle extras = new Bundle();
+                    extras.putLongArray(Contact.PARAM_IDS, ids);
+                    Bundle result = contentResolver.call(Contact.CONTENT_URI,
+                            Contact.METHOD_RESTORE, null, extras);
+                    deliver(callback, Contact.CONTENT_URI,
+                            result != null ? result.getInt(Contact.RESULT_ROWS) : 0);
+                }
+            });
+        }
+    }
+
+    // Окончательное удаление контактов ids, если они не восстановлены.
+    // Вызывается, когда закрывается предложение отменить удаление: окно
+    // восстановления отсчитывается от его отображения, а не от удаления.
+    public void purge(final long[] ids) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bundle extras = new Bundle();
+                extras.putLongArray(Contact.PARAM_IDS, ids);
+                contentResolver.call(Contact.CONTENT_URI, Contact.METHOD_PURGE, null, extras);
+            }
+        });
+    }
+
+    // Окончательное удаление контактов, время восстановления которых истекло.
+    // Вызывается также при запуске, если процесс завершился до удаления.
+    public void purgeDeleted() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                contentResolver.call(Contact.CONTENT_URI, Contact.METHOD_PURGE, null, null);
+            }
+        });
+    }
+
+    // Пересчет ключей сортировки контактов, если язык изменился после
+    // их вычисления. Вызывается при запуске; смена языка пересоздает активность,
+    // поэтому прерванный пересчет продолжается.
+    public void updateSortKeys() {
+        synchronized (sortKeysTask) {
+            if (sortKeysScheduled)
+                return;
+            sortKeysScheduled = true;
+        }
+        executor.execute(sortKeysTask);
+    }
+
+    // Запрещает объединять следующие обновления контактов ids с обновлениями,
+    // которые уже ждут в очереди (вызывается под блокировкой pendingUpdates).
+    private void closeUpdates(long[] ids) {
+        for (long id : ids)
+            pendingUpdates.remove(Contact.buildContactUri(id));
+    }
+
+    // Передает результат Callback в главном потоке.
+    private void deliver(final Callback callback, final Uri contactUri,
+                         final int affectedRows) {
+        if (callback == null)
+            return;
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onWriteCompleted(contactUri, affectedRows);
+            }
+        });
+    }
+}
@@ -43,9 +43,265 @@ public class DatabaseDescription {
         public static final String COLUMN_STATE = "state";
         public static final String COLUMN_ZIP = "zip";
 
+        // Нормализованный номер телефона для поиска по номеру; вычисляется
+        // провайдером при вставке и обновлении.
+        public static final String COLUMN_PHONE_KEY = "phone_key";
+
+        // Ключ сортировки имени по правилам текущего языка; вычисляется провайдером
+        // при вставке и обновлении и пересчитывается в фоне после смены языка
+        // (метод METHOD_UPDATE_SORT_KEYS). Ключи сравниваются как обычные строки.
+        public static final String COLUMN_SORT_KEY = "sort_key";
+
+        // Ключ раздела алфавитного указателя - ключ первой буквы имени без учета
+        // регистра и диакритики; вычисляется вместе с ключом сортировки.
+        public static final String COLUMN_SECTION_KEY = "section_key";
+
+        // Время мягкого удаления контакта (System.currentTimeMillis) или NULL.
+        // Удаленные контакты не возвращаются запросами и окончательно удаляются
+        // провайдером после UNDO_WINDOW_MS.
+        public static final String COLUMN_DELETED_AT = "deleted_at";
+
+        // Глобальный идентификатор контакта для синхронизации с сервером;
+        // назначается провайдером при вставке, если не передан.
+        public static final String COLUMN_SYNC_ID = "sync_id";
+
+        // Все столбцы таблицы.
+        public static final String[] ALL_COLUMNS = {_ID, COLUMN_NAME, COLUMN_PHONE,
+                COLUMN_EMAIL, COLUMN_STREET, COLUMN_CITY, COLUMN_STATE, COLUMN_ZIP};
+
+        // Столбцы, которые нужны списку контактов, и их индексы в курсоре
+        // запроса с этой проекцией. Ключ сортировки нужен для запроса следующей страницы.
+        public static final String[] LIST_PROJECTION = {_ID, COLUMN_NAME, COLUMN_SORT_KEY};
+        public static final int LIST_INDEX_ID = 0;
+        public static final int LIST_INDEX_NAME = 1;
+        public static final int LIST_INDEX_SORT_KEY = 2;
+
+        // Полнотекстовый индекс по имени, телефону, почте, улице и городу.
+        public static final String SEARCH_TABLE_NAME = "contacts_fts";
+
+        // Сегмент пути для полнотекстового поиска: contacts/search/<запрос>.
+        public static final String PATH_SEARCH = "search";
+
+        // Параметры постраничного запроса к таблице: размер страницы, смещение,
+        // ключ (sort_key, _id) последнего контакта предыдущей страницы или
+        // первого контакта следующей страницы.
+        public static final String PARAM_LIMIT = "limit";
+        public static final String PARAM_OFFSET = "offset";
+        public static final String PARAM_AFTER_KEY = "after_key";
+        public static final String PARAM_AFTER_ID = "after_id";
+        public static final String PARAM_BEFORE_KEY = "before_key";
+        public static final String PARAM_BEFORE_ID = "before_id";
+
+        // Параметр Uri таблицы со списком _id контактов через запятую для
+        // чтения или удаления набора контактов; тот же ключ используется для массива long[]
+        // в extras методов ContentProvider.call.
+        public static final String PARAM_IDS = "ids";
+
+        // Сегмент пути поиска контакта по номеру телефона: contacts/phone_lookup/<номер>.
+        public static final String PATH_PHONE_LOOKUP = "phone_lookup";
+
+        // Сегмент пути алфавитного указателя: contacts/sections. Каждая строка
+        // результата в порядке списка - первая буква имени и количество
+        // контактов, имена которых начинаются с этой буквы (без учета регистра
+        // и диакритики по правилам языка).
+        public static final String PATH_SECTIONS = "sections";
+        public static final String SECTION_COLUMN_LABEL = "section";
+        public static final String SECTION_COLUMN_COUNT = "count";
+        public static final int SECTION_INDEX_LABEL = 0;
+        public static final int SECTION_INDEX_COUNT = 1;
+
+        // Uri алфавитного указателя.
+        public static final Uri SECTIONS_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_SECTIONS).build();
+
+        // Сегмент пути предложений объединения дубликатов: contacts/duplicates.
+        // Каждая строка результата - пара контактов (contact_id < duplicate_id)
+        // и оценка их сходства от 0 до 1; строки отсортированы по убыванию оценки.
+        public static final String PATH_DUPLICATES = "duplicates";
+        public static final String DUPLICATE_COLUMN_CONTACT_ID = "contact_id";
+        public static final String DUPLICATE_COLUMN_DUPLICATE_ID = "duplicate_id";
+        public static final String DUPLICATE_COLUMN_SCORE = "score";
+        public static final int DUPLICATE_INDEX_CONTACT_ID = 0;
+        public static final int DUPLICATE_INDEX_DUPLICATE_ID = 1;
+        public static final int DUPLICATE_INDEX_SCORE = 2;
+
+        // Uri предложений объединения дубликатов.
+        public static final Uri DUPLICATES_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_DUPLICATES).build();
+
+        // Метод ContentProvider.call, объединяющий два контакта: arg - _id
+        // сохраняемого контакта, extras содержит _id дубликата под ключом
+        // DUPLICATE_COLUMN_DUPLICATE_ID. Пустые столбцы сохраняемого контакта
+        // заполняются значениями дубликата, затем дубликат удаляется.
+        public static final String METHOD_MERGE = "merge";
+
+        // Журнал изменений для синхронизации: одна строка на контакт с номером
+        // версии его последнего изменения. Версии только возрастают.
+        public static final String CHANGES_TABLE_NAME = "contact_changes";
+
+        // Сегмент пути изменений после версии: contacts/changes?since=N&limit=M.
+        // Каждая строка результата - текущее состояние контакта, измененного
+        // после версии N, в порядке возрастания версии. Для удаленного контакта
+        // deleted = 1 и столбцы данных пусты; local = 1 у локального изменения,
+        // которое сервер еще не вернул клиенту, local = 0 у изменений, полученных
+        // с сервера, и у подтвержденных локальных изменений.
+        public static final String PATH_CHANGES = "changes";
+        public static final String PARAM_SINCE = "since";
+        public static final String CHANGE_COLUMN_VERSION = "version";
+        public static final String CHANGE_COLUMN_DELETED = "deleted";
+        public static final String CHANGE_COLUMN_LOCAL = "local";
+        public static final String[] CHANGE_COLUMNS = {CHANGE_COLUMN_VERSION, COLUMN_SYNC_ID,
+                CHANGE_COLUMN_DELETED, CHANGE_COLUMN_LOCAL, COLUMN_NAME, COLUMN_PHONE,
+                COLUMN_EMAIL, COLUMN_STREET, COLUMN_CITY, COLUMN_STATE, COLUMN_ZIP};
+        public static final int CHANGE_INDEX_VERSION = 0;
+        public static final int CHANGE_INDEX_SYNC_ID = 1;
+        public static final int CHANGE_INDEX_DELETED = 2;
+        public static final int CHANGE_INDEX_LOCAL = 3;
+        // Индекс первого столбца данных; столбцы данных идут в порядке
+        // Contact.ALL_COLUMNS без _id.
+        public static final int CHANGE_INDEX_FIRST_DATA = 4;
+
+        // Идентификатор клиента, отправившего изменение на сервер. Отправленное
+        // изменение содержит его и свою версию в журнале (CHANGE_COLUMN_VERSION).
+        public static final String CHANGE_COLUMN_ORIGIN = "origin";
+
+        // Метод ContentProvider.call, применяющий изменения с сервера в одной
+        // транзакции. extras содержит ArrayList<ContentValues> под ключом
+        // PATH_CHANGES (каждое изменение - sync_id, deleted и столбцы данных)
+        // и идентификатор этого клиента под ключом CHANGE_COLUMN_ORIGIN.
+        // Собственное изменение клиента, вернувшееся с сервера, не применяется,
+        // а только подтверждает локальное изменение той же версии. Изменение
+        // другого клиента не применяется к контакту с неподтвержденным локальным
+        // изменением: сервер получает локальное изменение позже и оно побеждает.
+        // Примененные изменения не считаются локальными и не отправляются обратно.
+        public static final String METHOD_APPLY_CHANGES = "apply_changes";
+
+        // Метод ContentProvider.call, пересчитывающий ключи сортировки следующей
+        // порции контактов после смены языка. Возвращает количество пересчитанных
+        // контактов (RESULT_ROWS) и RESULT_DONE = true, когда пересчитывать больше нечего.
+        public static final String METHOD_UPDATE_SORT_KEYS = "update_sort_keys";
+        public static final String RESULT_DONE = "done";
+
+        // Время, в течение которого удаленные контакты можно восстановить.
+        public static final long UNDO_WINDOW_MS = 5000;
+
+        // Метод ContentProvider.call, восстанавливающий удаленные контакты,
+        // _id которых переданы в extras под ключом PARAM_IDS.
+        public static final String METHOD_RESTORE = "restore";
+
+        // Метод ContentProvider.call, окончательно удаляющий контакты, удаленные
+        // раньше чем UNDO_WINDOW_MS назад, или, если в extras под ключом PARAM_IDS
+        // переданы _id, эти удаленные контакты, предложение восстановить которые
+        // уже закрыто.
+        public static final String METHOD_PURGE = "purge";
+
+        // Ключ количества измененных строк в Bundle, возвращаемом
+        // методами restore и purge.
+        public static final String RESULT_ROWS = "rows";
+
+        // Метод ContentProvider.call, возвращающий статистику кеша контактов,
+        // и ключи значений в возвращаемом Bundle.
+        public static final String METHOD_CACHE_STATS = "cache_stats";
+        public static final String STATS_CACHE_SIZE = "cache_size";
+        public static final String STATS_CACHE_HITS = "cache_hits";
+        public static final String STATS_CACHE_MISSES = "cache_misses";
+        public static final String STATS_CACHE_EVICTIONS = "cache_evictions";
+
+        // Метод ContentProvider.call, возвращающий метрики операций провайдера:
+        // для каждой пары "операция/код Uri" - массив long[] с гистограммой
+        // времени выполнения и счетчиками (см. ProviderMetrics).
+        public static final String METHOD_METRICS = "metrics";
+
+        // Метод ContentProvider.call, включающий (arg = "true") или выключающий
+        // запись метрик; используется для измерения их накладных расходов.
+        public static final String METHOD_SET_METRICS = "set_metrics";
+
+        // Порядок сортировки списка - проход по индексу sort_key, в котором
+        // строки с одинаковым ключом упорядочены по _id; _id делает ключ страницы уникальным.
+        public static final String LIST_SORT_ORDER =
+                COLUMN_SORT_KEY + " ASC, " + _ID + " ASC";
+
+        // Обратный порядок списка для страниц перед ключом.
+        public static final String LIST_REVERSE_SORT_ORDER =
+                COLUMN_SORT_KEY + " DESC, " + _ID + " DESC";
+
         // Метод создает Uri для конктретного контакта.
         public static Uri buildContactUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        // Метод создает Uri набора контактов с заданными идентификаторами.
+        public static Uri buildContactsUri(long[] ids) {
+            StringBuilder idList = new StringBuilder();
+            for (long id : ids) {
+                if (idList.length() > 0)
+                    idList.append(',');
+                idList.append(id);
+            }
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_IDS, idList.toString()).build();
+        }
+
+        // Метод создает Uri страницы, которая начинается после контакта (afterKey, afterId).
+        public static Uri buildPageUri(String afterKey, long afterId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_AFTER_KEY, afterKey)
+                    .appendQueryParameter(PARAM_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        // Метод создает Uri страницы, которая начинается с контакта (fromKey, fromId):
+        // _id целые, поэтому это страница после ключа (fromKey, fromId - 1).
+        public static Uri buildPageFromUri(String fromKey, long fromId, int limit) {
+            return buildPageUri(fromKey, fromId - 1, limit);
+        }
+
+        // Метод создает Uri limit контактов, которые идут в списке перед контактом
+        // (beforeKey, beforeId). Строки возвращаются в обратном порядке
+        // (LIST_REVERSE_SORT_ORDER): первой идет ближайшая к ключу.
+        public static Uri buildPageBeforeUri(String beforeKey, long beforeId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_BEFORE_KEY, beforeKey)
+                    .appendQueryParameter(PARAM_BEFORE_ID, String.valueOf(beforeId))
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        // Метод создает Uri страницы, которая начинается с позиции offset.
+        public static Uri buildPageUri(int offset, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_OFFSET, String.valueOf(offset))
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        // Метод создает Uri изменений после версии since, не больше limit строк.
+        public static Uri buildChangesUri(long since, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_CHANGES)
+                    .appendQueryParameter(PARAM_SINCE, String.valueOf(since))
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        // Метод создает Uri для поиска контакта по номеру телефона.
+        public static Uri buildPhoneLookupUri(String phone) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_PHONE_LOOKUP).appendPath(phone).build();
+        }
+
+        // Метод создает Uri для поиска контактов по введенной строке.
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH).appendPath(query).build();
+        }
+
+        // Метод создает Uri для первых limit контактов, найденных по строке.
+        public static Uri buildSearchUri(String query, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH).appendPath(query)
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit)).build();
+        }
     }
 }
@@ -0,0 +1,304 @@
+package com.omelchenkoaleks.addressbook.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Поиск возможных дубликатов в таблице contacts.
+ * Вместо сравнения каждой пары контактов строки разбиваются на блоки с
+ * одинаковым ключом: нормализованным именем, номером телефона (phone_key)
+ * или адресом почты. Сходство вычисляется только для пар внутри блока,
+ * блоки обрабатываются параллельно на всех ядрах.
+ * Пара, у которой совпадает несколько ключей, оценивается только в первом
+ * из их блоков, который не пропущен из-за размера, поэтому каждая пара
+ * попадает в результат один раз.
+ */
+class DuplicateDetector {
+
+    // Минимальная оценка сходства пары, которая предлагается для объединения.
+    static final double MIN_SCORE = 0.7;
+
+    // Блоки больше этого размера пропускаются: такой ключ (распространенное имя,
+    // общий рабочий телефон) не отличает один контакт от другого.
+    static final int MAX_BLOCK_SIZE = 256;
+
+    // Вес совпадения имени, телефона и почты в оценке сходства.
+    private static final double NAME_WEIGHT = 0.5;
+    private static final double PHONE_WEIGHT = 0.3;
+    private static final double EMAIL_WEIGHT = 0.2;
+
+    // Типы ключей в порядке, в котором они проверяются для пары.
+    private static final int KEY_NAME = 0;
+    private static final int KEY_PHONE = 1;
+    private static final int KEY_EMAIL = 2;
+    private static final int KEY_TYPES = 3;
+
+    // Столбцы результата.
+    private static final String[] COLUMNS = {Contact.DUPLICATE_COLUMN_CONTACT_ID,
+            Contact.DUPLICATE_COLUMN_DUPLICATE_ID, Contact.DUPLICATE_COLUMN_SCORE};
+
+    // Одна предложенная пара: contactId < duplicateId.
+    private static final class Suggestion implements Comparable<Suggestion> {
+        final long contactId;
+        final long duplicateId;
+        final double score;
+
+        Suggestion(long contactId, long duplicateId, double score) {
+            this.contactId = contactId;
+            this.duplicateId = duplicateId;
+            this.score = score;
+        }
+
+        // Сначала пары с большей оценкой.
+        @Override
+        public int compareTo(Suggestion other) {
+            if (score != other.score)
+                return score > other.score ? -1 : 1;
+            if (contactId != other.contactId)
+                return contactId < other.contactId ? -1 : 1;
+            return duplicateId < other.duplicateId ? -1 :
+                    duplicateId == other.duplicateId ? 0 : 1;
+        }
+    }
+
+    // Идентификаторы и ключи всех контактов; keys[тип][строка] может быть null.
+    private long[] ids;
+    private final String[][] keys = new String[KEY_TYPES][];
+
+    // inBlock[тип][строка] - строка входит в блок ключа этого типа, который
+    // оценивается (не пропущен из-за размера).
+    private final boolean[][] inBlock = new boolean[KEY_TYPES][];
+
+    // Возвращает курсор пар возможных дубликатов со столбцами
+    // contact_id, duplicate_id и score, отсортированный по убыванию оценки.
+    Cursor findDuplicates(SQLiteDatabase db) {
+        readKeys(db);
+
+        List<int[]> blocks = new ArrayList<>();
+        List<Integer> blockTypes = new ArrayList<>();
+        for (int type = 0; type < KEY_TYPES; type++)
+            collectBlocks(type, blocks, blockTypes);
+
+        List<Suggestion> suggestions = scoreBlocks(blocks, blockTypes);
+        Collections.sort(suggestions);
+
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, suggestions.size());
+        for (Suggestion suggestion : suggestions)
+            cursor.addRow(new Object[]{
+                    suggestion.contactId, suggestion.duplicateId, suggestion.score});
+        return cursor;
+    }
+
+    // Читает идентификаторы и вычисляет ключи всех контактов.
+    private void readKeys(SQLiteDatabase db) {
+        Cursor cursor = db.query(Contact.TABLE_NAME, new String[]{Contact._ID,
+                        Contact.COLUMN_NAME, Contact.COLUMN_PHONE_KEY, Contact.COLUMN_EMAIL},
+                AddressBookContentProvider.LIVE_CONTACTS, null, null, null, null);
+        try {
+            int count = cursor.getCount();
+            ids = new long[count];
+            for (int type = 0; type < KEY_TYPES; type++)
+                keys[type] = new String[count];
+
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+                keys[KEY_NAME][i] = nameKey(cursor.getString(1));
+                keys[KEY_PHONE][i] = cursor.getString(2);
+                keys[KEY_EMAIL][i] = emailKey(cursor.getString(3));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Группирует строки с одинаковым ключом типа type в блоки по две и более строки.
+    // Строки блока связываются в список через массив next без отдельных коллекций.
+    private void collectBlocks(int type, List<int[]> blocks, List<Integer> blockTypes) {
+        String[] typeKeys = keys[type];
+        Map<String, Integer> heads = new HashMap<>();
+        int[] next = new int[ids.length];
+        int[] sizes = new int[ids.length];
+        inBlock[type] = new boolean[ids.length];
+
+        for (int i = 0; i < typeKeys.length; i++) {
+            if (typeKeys[i] == null)
+                continue;
+
+            Integer head = heads.put(typeKeys[i], i);
+            next[i] = head != null ? head : -1;
+            sizes[i] = head != null ? sizes[head] + 1 : 1;
+        }
+
+        for (int head : heads.values()) {
+            int size = sizes[head];
+            if (size < 2 || size > MAX_BLOCK_SIZE)
+                continue;
+
+            int[] block = new int[size];
+            for (int i = 0, row = head; row >= 0; row = next[row]) {
+                block[i++] = row;
+                inBlock[type][row] = true;
+            }
+            blocks.add(block);
+            blockTypes.add(type);
+        }
+    }
+
+    // Оценивает пары внутри блоков параллельно; каждая задача обрабатывает
+    // каждый threads-й блок и собирает результаты в свой список.
+    private List<Suggestion> scoreBlocks(final List<int[]> blocks,
+                                         final List<Integer> blockTypes) {
+        final int threads = Math.max(1, Math.min(
+                Runtime.getRuntime().availableProcessors(), blocks.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<List<Suggestion>>> results = new ArrayList<>(threads);
+            for (int task = 0; task < threads; task++) {
+                final int firstBlock = task;
+                results.add(executor.submit(new Callable<List<Suggestion>>() {
+                    @Override
+                    public List<Suggestion> call() {
+                        List<Suggestion> suggestions = new ArrayList<>();
+                        for (int i = firstBlock; i < blocks.size(); i += threads)
+                            scoreBlock(blocks.get(i), blockTypes.get(i), suggestions);
+                        return suggestions;
+                    }
+                }));
+            }
+
+            List<Suggestion> suggestions = new ArrayList<>();
+            for (Future<List<Suggestion>> result : results)
+                suggestions.addAll(result.get());
+            return suggestions;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Оценивает все пары одного блока.
+    private void scoreBlock(int[] block, int type, List<Suggestion> suggestions) {
+        for (int a = 0; a < block.length; a++) {
+            for (int b = a + 1; b < block.length; b++) {
+                int first = block[a];
+                int second = block[b];
+
+                // Пара уже оценена в блоке ключа с меньшим типом.
+                if (sharesKeyBefore(first, second, type))
+                    continue;
+
+                double score = score(first, second);
+                if (score >= MIN_SCORE) {
+                    long firstId = ids[first];
+                    long secondId = ids[second];
+                    suggestions.add(new Suggestion(Math.min(firstId, secondId),
+                            Math.max(firstId, secondId), score));
+                }
+            }
+        }
+    }
+
+    // true, если у строк совпадает ключ одного из типов до type и блок этого
+    // ключа оценивается. Пара из пропущенного большого блока (распространенное
+    // имя) оценивается в блоке следующего общего ключа.
+    private boolean sharesKeyBefore(int first, int second, int type) {
+        for (int earlier = 0; earlier < type; earlier++) {
+            String key = keys[earlier][first];
+            if (key != null && key.equals(keys[earlier][second]) && inBlock[earlier][first])
+                return true;
+        }
+        return false;
+    }
+
+    // Оценка сходства от 0 до 1.
+    private double score(int first, int second) {
+        double score = NAME_WEIGHT * similarity(keys[KEY_NAME][first], keys[KEY_NAME][second]);
+        if (equalKeys(KEY_PHONE, first, second))
+            score += PHONE_WEIGHT;
+        if (equalKeys(KEY_EMAIL, first, second))
+            score += EMAIL_WEIGHT;
+        return score;
+    }
+
+    private boolean equalKeys(int type, int first, int second) {
+        return keys[type][first] != null && keys[type][first].equals(keys[type][second]);
+    }
+
+    // Сходство имен: 1 минус расстояние Левенштейна, деленное на длину большего имени.
+    static double similarity(String first, String second) {
+        if (first == null || second == null)
+            return 0;
+        if (first.equals(second))
+            return 1;
+
+        int[] previous = new int[second.length() + 1];
+        int[] current = new int[second.length() + 1];
+        for (int j = 0; j < previous.length; j++)
+            previous[j] = j;
+
+        for (int i = 1; i <= first.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= second.length(); j++) {
+                int cost = first.charAt(i - 1) == second.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1),
+                        previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        int maxLength = Math.max(first.length(), second.length());
+        return 1 - (double) previous[second.length()] / maxLength;
+    }
+
+    // Ключ имени: слова в нижнем регистре без знаков препинания, отсортированные,
+    // чтобы "Иванов Иван" и "иван иванов" совпадали. null, если слов нет.
+    static String nameKey(String name) {
+        if (name == null)
+            return null;
+
+        String[] words = name.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        Arrays.sort(words);
+
+        StringBuilder key = new StringBuilder();
+        for (String word : words) {
+            if (word.isEmpty())
+                continue;
+            if (key.length() > 0)
+                key.append(' ');
+            key.append(word);
+        }
+        return key.length() > 0 ? key.toString() : null;
+    }
+
+    // Ключ почты: адрес без пробелов по краям в нижнем регистре. null для пустого адреса.
+    static String emailKey(String email) {
+        if (email == null)
+            return null;
+
+        String key = email.trim().toLowerCase(Locale.ROOT);
+        return key.isEmpty() ? null : key;
+    }
+}
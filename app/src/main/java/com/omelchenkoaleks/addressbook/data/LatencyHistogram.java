@@ -0,0 +1,34 @@
+package com.omelchenkoaleks.addressbook.data;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Логарифмическая гистограмма времени в общем массиве AtomicLongArray:
+ * BUCKETS корзин, количество измерений и суммарное время в наносекундах,
+ * начиная со смещения base. Используется ProviderMetrics и ContactPrefetcher.
+ * Запись измерения - несколько атомарных увеличений без блокировок и
+ * выделения памяти.
+ */
+final class LatencyHistogram {
+
+    // Корзина i гистограммы содержит измерения до 2^i микросекунд;
+    // последняя корзина - все более долгие.
+    static final int BUCKETS = 24;
+
+    // Значения одной гистограммы в массиве относительно base.
+    static final int COUNT = BUCKETS;
+    static final int TOTAL_NANOS = BUCKETS + 1;
+    static final int SLOTS = BUCKETS + 2;
+
+    private LatencyHistogram() {
+    }
+
+    // Записывает измерение nanos в гистограмму, начинающуюся с base.
+    static void record(AtomicLongArray counters, int base, long nanos) {
+        long micros = nanos / 1000;
+        int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        counters.incrementAndGet(base + Math.min(bucket, BUCKETS - 1));
+        counters.incrementAndGet(base + COUNT);
+        counters.addAndGet(base + TOTAL_NANOS, nanos);
+    }
+}
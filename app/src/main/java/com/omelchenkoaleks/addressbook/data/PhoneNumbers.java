@@ -0,0 +1,40 @@
+package com.omelchenkoaleks.addressbook.data;
+
+/**
+ * Приведение номеров телефонов к ключу для поиска.
+ * Ключ строится в стиле E.164: только цифры с ведущим '+', если номер
+ * международный; международный префикс "00" заменяется на '+'.
+ * "+7 (999) 123-45-67", "+79991234567" и "007 999 123 45 67" дают один ключ.
+ */
+final class PhoneNumbers {
+
+    private PhoneNumbers() {
+    }
+
+    // Ключ номера или null, если в номере нет цифр.
+    static String normalize(String phone) {
+        if (phone == null)
+            return null;
+
+        StringBuilder key = new StringBuilder(phone.length());
+        boolean international = false;
+
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+
+            if (c >= '0' && c <= '9')
+                key.append(c);
+            else if (c == '+' && key.length() == 0)
+                international = true;
+        }
+
+        if (!international && key.length() > 2 && key.charAt(0) == '0' && key.charAt(1) == '0') {
+            key.delete(0, 2);
+            international = true;
+        }
+
+        if (key.length() == 0)
+            return null;
+        return international ? key.insert(0, '+').toString() : key.toString();
+    }
+}
@@ -0,0 +1,171 @@
+package com.omelchenkoaleks.addressbook.data;
+
+import android.database.AbstractWindowedCursor;
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Метрики AddressBookContentProvider: гистограммы времени выполнения,
+ * количество строк и размер первого окна CursorWindow для каждой операции
+ * и каждого кода UriMatcher.
+ * Все счетчики выделяются заранее, запись измерения - несколько атомарных
+ * увеличений без блокировок и выделения памяти.
+ * Время запроса - подготовка команды SQLite; строки курсора читаются при
+ * заполнении первого окна, поэтому количество строк и время заполнения
+ * записываются позже, при первом вызове getCount курсора клиентом
+ * (ContentResolver вызывает его сразу после запроса).
+ * Метрики можно выключить (METHOD_SET_METRICS), чтобы измерить их накладные расходы.
+ */
+class ProviderMetrics {
+
+    // Операции провайдера.
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int UPDATE = 2;
+    static final int DELETE = 3;
+    static final int BULK_INSERT = 4;
+    static final int APPLY_BATCH = 5;
+
+    private static final String[] OPERATION_NAMES =
+            {"query", "insert", "update", "delete", "bulkInsert", "applyBatch"};
+
+    // Значения счетчиков одной пары (операция, код Uri) в массиве:
+    // гистограмма LatencyHistogram и счетчики строк.
+    private static final int COUNT = LatencyHistogram.COUNT;
+    private static final int TOTAL_NANOS = LatencyHistogram.TOTAL_NANOS;
+    private static final int ROWS = LatencyHistogram.SLOTS;
+    private static final int WINDOW_ROWS = LatencyHistogram.SLOTS + 1;
+    private static final int FILL_NANOS = LatencyHistogram.SLOTS + 2;
+    private static final int SLOTS = LatencyHistogram.SLOTS + 3;
+
+    // Коды UriMatcher от NO_MATCH (-1) до maxMatchCode.
+    private final int matchCodes;
+    private final AtomicLongArray counters;
+
+    private volatile boolean enabled = true;
+
+    // Конструктор; maxMatchCode - наибольший код UriMatcher провайдера.
+    ProviderMetrics(int maxMatchCode) {
+        matchCodes = maxMatchCode + 2;
+        counters = new AtomicLongArray(OPERATION_NAMES.length * matchCodes * SLOTS);
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    // Включает или выключает запись измерений.
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // Записывает измерение. startNanos - значение System.nanoTime() в начале операции,
+    // rows - количество возвращенных или измененных строк, windowRows - строк в
+    // первом окне курсора (0 для операций записи).
+    void record(int operation, int match, long startNanos, long rows, long windowRows) {
+        if (!enabled)
+            return;
+
+        long nanos = System.nanoTime() - startNanos;
+        int base = offset(operation, match);
+
+        LatencyHistogram.record(counters, base, nanos);
+        counters.addAndGet(base + ROWS, rows);
+        counters.addAndGet(base + WINDOW_ROWS, windowRows);
+    }
+
+    // Курсор запроса query, который при первом вызове getCount записывает
+    // количество строк, строки первого окна и время его заполнения.
+    // CrossProcessCursorWrapper сохраняет окно курсора SQLite для передачи
+    // другому процессу без копирования.
+    Cursor measureQuery(final Cursor cursor, final int match) {
+        return new CrossProcessCursorWrapper(cursor) {
+            private boolean counted;
+
+            @Override
+            public int getCount() {
+                if (counted)
+                    return super.getCount();
+                counted = true;
+
+                long start = System.nanoTime();
+                int rows = super.getCount();
+                long fillNanos = System.nanoTime() - start;
+
+                long windowRows = 0;
+                if (cursor instanceof AbstractWindowedCursor &&
+                        ((AbstractWindowedCursor) cursor).getWindow() != null)
+                    windowRows = ((AbstractWindowedCursor) cursor).getWindow().getNumRows();
+
+                if (enabled) {
+                    int base = offset(QUERY, match);
+                    counters.addAndGet(base + ROWS, rows);
+                    counters.addAndGet(base + WINDOW_ROWS, windowRows);
+                    counters.addAndGet(base + FILL_NANOS, fillNanos);
+                }
+                return rows;
+            }
+        };
+    }
+
+    // Снимок метрик: для каждой пары с измерениями ключ "операция/код" и массив
+    // long[] из значений LatencyHistogram (гистограмма, количество, суммарное
+    // время в наносекундах), количества строк, строк в окнах курсоров и
+    // суммарного времени заполнения первых окон в наносекундах.
+    Bundle snapshot() {
+        Bundle snapshot = new Bundle();
+
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int match = -1; match < matchCodes - 1; match++) {
+                int base = offset(operation, match);
+                if (counters.get(base + COUNT) == 0)
+                    continue;
+
+                long[] values = new long[SLOTS];
+                for (int i = 0; i < SLOTS; i++)
+                    values[i] = counters.get(base + i);
+                snapshot.putLongArray(OPERATION_NAMES[operation] + "/" + match, values);
+            }
+        }
+        return snapshot;
+    }
+
+    // Текстовый отчет для dumpsys.
+    void dump(PrintWriter writer) {
+        writer.println("AddressBookContentProvider metrics (bucket i: <= 2^i us)");
+
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int match = -1; match < matchCodes - 1; match++) {
+                int base = offset(operation, match);
+                long count = counters.get(base + COUNT);
+                if (count == 0)
+                    continue;
+
+                writer.print("  " + OPERATION_NAMES[operation] + " uri=" + match +
+                        " count=" + count +
+                        " avgUs=" + counters.get(base + TOTAL_NANOS) / count / 1000 +
+                        " rows=" + counters.get(base + ROWS) +
+                        " windowRows=" + counters.get(base + WINDOW_ROWS) +
+                        " avgFillUs=" + counters.get(base + FILL_NANOS) / count / 1000 +
+                        " histogram=");
+                for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+                    if (i > 0)
+                        writer.print(',');
+                    writer.print(counters.get(base + i));
+                }
+                writer.println();
+            }
+        }
+    }
+
+    // Коды вне диапазона учитываются вместе с NO_MATCH.
+    private int offset(int operation, int match) {
+        if (match >= matchCodes - 1)
+            match = -1;
+        return (operation * matchCodes + match + 1) * SLOTS;
+    }
+}
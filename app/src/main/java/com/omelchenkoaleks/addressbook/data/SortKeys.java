@@ -0,0 +1,198 @@
+package com.omelchenkoaleks.addressbook.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * Ключи сортировки имен по правилам текущего языка.
+ * Ключ - байты CollationKey в шестнадцатеричной записи: обычное двоичное
+ * сравнение строк ключей дает тот же порядок, что и Collator, поэтому список
+ * сортируется проходом по индексу столбца sort_key без COLLATE в запросе.
+ * Ключ раздела алфавитного указателя - ключ первой буквы имени без учета
+ * регистра и диакритики в той же записи. Количество контактов каждого раздела
+ * хранится в таблице contact_sections, которую триггеры обновляют при вставке,
+ * удалении, мягком удалении и переименовании контакта, поэтому указатель
+ * читается без прохода по контактам.
+ * Провайдер вычисляет ключи при вставке и изменении имени. После смены языка
+ * ключи всех контактов пересчитываются порциями (updateBatch); состояние
+ * пересчета хранится в таблице sort_key_state, поэтому прерванный пересчет
+ * продолжается с места остановки.
+ */
+final class SortKeys {
+
+    // Количество контактов в одной порции пересчета.
+    static final int BATCH_SIZE = 500;
+
+    // Таблица состояния пересчета из одной строки: язык, для которого
+    // вычислены ключи всех контактов, язык текущего пересчета и _id последнего
+    // пересчитанного контакта.
+    static final String STATE_TABLE_NAME = "sort_key_state";
+    static final String STATE_COLUMN_LOCALE = "locale";
+    static final String STATE_COLUMN_TARGET_LOCALE = "target_locale";
+    static final String STATE_COLUMN_PROGRESS = "progress";
+
+    // Таблица разделов алфавитного указателя: ключ раздела, буква первого
+    // контакта раздела и количество контактов, которые не удалены.
+    static final String SECTIONS_TABLE_NAME = "contact_sections";
+    static final String SECTIONS_COLUMN_LABEL = "label";
+    static final String SECTIONS_COLUMN_COUNT = "count";
+
+    // Ключ раздела контактов без имени; такие контакты идут в начале списка.
+    static final String EMPTY_SECTION_KEY = "";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // Collator текущего языка и Collator букв разделов, который не учитывает
+    // регистр и диакритику; создаются заново при смене языка.
+    private static Locale collatorLocale;
+    private static Collator collator;
+    private static Collator letterCollator;
+
+    private SortKeys() {
+    }
+
+    // Ключ сортировки имени или null для контакта без имени: такие контакты
+    // идут в начале списка.
+    static synchronized String forName(String name) {
+        if (name == null)
+            return null;
+
+        updateCollators();
+        return hex(collator.getCollationKey(name).toByteArray());
+    }
+
+    // Ключ раздела алфавитного указателя: ключ первой буквы имени.
+    // Буквы, которые отличаются только регистром или диакритикой, дают один
+    // ключ, а порядок ключей совпадает с порядком имен в списке.
+    static synchronized String sectionForName(String name) {
+        if (name == null || name.isEmpty())
+            return EMPTY_SECTION_KEY;
+
+        updateCollators();
+        String letter = name.substring(0, Character.charCount(name.codePointAt(0)));
+        return hex(letterCollator.getCollationKey(letter).toByteArray());
+    }
+
+    // Создает Collator для текущего языка, если язык изменился.
+    private static void updateCollators() {
+        Locale locale = Locale.getDefault();
+        if (locale.equals(collatorLocale))
+            return;
+
+        collator = Collator.getInstance(locale);
+        letterCollator = Collator.getInstance(locale);
+        letterCollator.setStrength(Collator.PRIMARY);
+        collatorLocale = locale;
+    }
+
+    // Байты ключа в шестнадцатеричной записи.
+    private static String hex(byte[] key) {
+        char[] hex = new char[key.length * 2];
+        for (int i = 0; i < key.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(key[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[key[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    // Пересчитывает ключи сортировки и разделов следующей порции контактов для текущего языка в одной
+    // транзакции. Возвращает количество пересчитанных контактов или -1, если
+    // ключи всех контактов уже соответствуют текущему языку. Порция меньше
+    // BATCH_SIZE завершает пересчет.
+    static int updateBatch(SQLiteDatabase db) {
+        String locale = Locale.getDefault().toString();
+
+        db.beginTransactionNonExclusive();
+        try {
+            long progress;
+            Cursor state = db.query(STATE_TABLE_NAME, new String[]{STATE_COLUMN_LOCALE,
+                            STATE_COLUMN_TARGET_LOCALE, STATE_COLUMN_PROGRESS},
+                    null, null, null, null, null);
+            try {
+                if (!state.moveToFirst() || locale.equals(state.getString(0)))
+                    return -1;
+
+                // Пересчет для другого языка начинается сначала.
+                progress = locale.equals(state.getString(1)) ? state.getLong(2) : 0;
+            } finally {
+                state.close();
+            }
+
+            int updated = 0;
+            SQLiteStatement update = db.compileStatement("UPDATE " + Contact.TABLE_NAME +
+                    " SET " + Contact.COLUMN_SORT_KEY + " = ?, " + Contact.COLUMN_SECTION_KEY +
+                    " = ? WHERE " + Contact._ID + " = ?");
+            Cursor contacts = db.query(Contact.TABLE_NAME,
+                    new String[]{Contact._ID, Contact.COLUMN_NAME},
+                    Contact._ID + " > ?", new String[]{String.valueOf(progress)},
+                    null, null, Contact._ID + " ASC", String.valueOf(BATCH_SIZE));
+            try {
+                while (contacts.moveToNext()) {
+                    String name = contacts.getString(1);
+                    String key = forName(name);
+                    if (key != null)
+                        update.bindString(1, key);
+                    else
+                        update.bindNull(1);
+                    update.bindString(2, sectionForName(name));
+                    progress = contacts.getLong(0);
+                    update.bindLong(3, progress);
+                    update.executeUpdateDelete();
+                    updated++;
+                }
+            } finally {
+                contacts.close();
+                update.close();
+            }
+
+            db.execSQL("UPDATE " + STATE_TABLE_NAME + " SET " + STATE_COLUMN_LOCALE +
+                            " = ?, " + STATE_COLUMN_TARGET_LOCALE + " = ?, " +
+                            STATE_COLUMN_PROGRESS + " = ?",
+                    new Object[]{updated < BATCH_SIZE ? locale : null, locale, progress});
+            db.setTransactionSuccessful();
+            return updated;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Алфавитный указатель: строки таблицы разделов в порядке ключей, то есть
+    // в порядке списка. Каждый раздел - непрерывный участок списка, поэтому
+    // позиция раздела равна сумме размеров предыдущих разделов.
+    static Cursor sections(SQLiteDatabase db) {
+        return db.query(SECTIONS_TABLE_NAME, new String[]{
+                        SECTIONS_COLUMN_LABEL + " AS " + Contact.SECTION_COLUMN_LABEL,
+                        SECTIONS_COLUMN_COUNT + " AS " + Contact.SECTION_COLUMN_COUNT},
+                null, null, null, null, Contact.COLUMN_SECTION_KEY + " ASC");
+    }
+
+    // Команды триггеров, которые поддерживают таблицу разделов: row - "new"
+    // или "old", строка учитывается, только если контакт не удален.
+    static String addToSection(String row) {
+        String key = "ifnull(" + row + "." + Contact.COLUMN_SECTION_KEY + ", '')";
+        String live = row + "." + Contact.COLUMN_DELETED_AT + " IS NULL";
+        return "INSERT OR IGNORE INTO " + SECTIONS_TABLE_NAME + "(" +
+                Contact.COLUMN_SECTION_KEY + ", " + SECTIONS_COLUMN_LABEL + ", " +
+                SECTIONS_COLUMN_COUNT + ") SELECT " + key + ", substr(" + row + "." +
+                Contact.COLUMN_NAME + ", 1, 1), 0 WHERE " + live + "; " +
+                "UPDATE " + SECTIONS_TABLE_NAME + " SET " + SECTIONS_COLUMN_COUNT + " = " +
+                SECTIONS_COLUMN_COUNT + " + 1 WHERE " + Contact.COLUMN_SECTION_KEY + " = " +
+                key + " AND " + live + ";";
+    }
+
+    static String removeFromSection(String row) {
+        String key = "ifnull(" + row + "." + Contact.COLUMN_SECTION_KEY + ", '')";
+        String live = row + "." + Contact.COLUMN_DELETED_AT + " IS NULL";
+        return "UPDATE " + SECTIONS_TABLE_NAME + " SET " + SECTIONS_COLUMN_COUNT + " = " +
+                SECTIONS_COLUMN_COUNT + " - 1 WHERE " + Contact.COLUMN_SECTION_KEY + " = " +
+                key + " AND " + live + "; " +
+                "DELETE FROM " + SECTIONS_TABLE_NAME + " WHERE " + Contact.COLUMN_SECTION_KEY +
+                " = " + key + " AND " + SECTIONS_COLUMN_COUNT + " = 0;";
+    }
+}
@@ -0,0 +1,140 @@
+package com.omelchenkoaleks.addressbook.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * Инкрементальная синхронизация контактов с SyncServer.
+ * Сначала на сервер отправляются локальные изменения из журнала изменений
+ * провайдера (contacts/changes) после последней отправленной версии, затем
+ * с сервера загружаются изменения после последней полученной версии и
+ * применяются провайдером порциями по BATCH_SIZE, каждая в одной транзакции.
+ * Обе версии сохраняются в SharedPreferences после каждой порции, поэтому
+ * прерванная синхронизация продолжается с места остановки.
+ * Изменения, полученные с сервера, не считаются локальными и не отправляются
+ * обратно. Отправленные изменения помечаются идентификатором клиента, поэтому
+ * собственные изменения, вернувшиеся с сервера, не перезаписывают изменения,
+ * сделанные после отправки.
+ */
+public class SyncEngine {
+
+    // Количество изменений в одной порции отправки и применения.
+    static final int BATCH_SIZE = 500;
+
+    // Ключи версий в SharedPreferences.
+    static final String KEY_PUSHED_VERSION = "pushed_version";
+    static final String KEY_SERVER_VERSION = "server_version";
+    static final String KEY_CLIENT_ID = "client_id";
+
+    private final ContentResolver contentResolver;
+    private final SharedPreferences state;
+    private final SyncServer server;
+
+    // Конструктор.
+    public SyncEngine(ContentResolver contentResolver, SharedPreferences state,
+                      SyncServer server) {
+        this.contentResolver = contentResolver;
+        this.state = state;
+        this.server = server;
+    }
+
+    // Выполняет отправку и загрузку изменений (вне главного потока).
+    public void sync() throws IOException {
+        push();
+        pull();
+    }
+
+    // Отправляет локальные изменения порциями.
+    private void push() throws IOException {
+        long since = state.getLong(KEY_PUSHED_VERSION, 0);
+        String clientId = clientId();
+
+        while (true) {
+            Cursor cursor = contentResolver.query(Contact.buildChangesUri(since, BATCH_SIZE),
+                    null, null, null, null);
+            if (cursor == null)
+                return;
+
+            ArrayList<ContentValues> changes = new ArrayList<>();
+            int rows;
+            try {
+                rows = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    since = cursor.getLong(Contact.CHANGE_INDEX_VERSION);
+                    if (cursor.getInt(Contact.CHANGE_INDEX_LOCAL) != 0) {
+                        ContentValues change = readChange(cursor);
+                        change.put(Contact.CHANGE_COLUMN_ORIGIN, clientId);
+                        change.put(Contact.CHANGE_COLUMN_VERSION, since);
+                        changes.add(change);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (!changes.isEmpty())
+                server.push(changes);
+            state.edit().putLong(KEY_PUSHED_VERSION, since).commit();
+
+            if (rows < BATCH_SIZE)
+                return;
+        }
+    }
+
+    // Загружает изменения с сервера и применяет каждую порцию одной транзакцией.
+    private void pull() throws IOException {
+        long since = state.getLong(KEY_SERVER_VERSION, 0);
+
+        while (true) {
+            SyncServer.Changes remote = server.pull(since, BATCH_SIZE);
+            if (remote.changes.isEmpty())
+                return;
+
+            Bundle extras = new Bundle();
+            extras.putParcelableArrayList(Contact.PATH_CHANGES,
+                    new ArrayList<>(remote.changes));
+            extras.putString(Contact.CHANGE_COLUMN_ORIGIN, clientId());
+            contentResolver.call(Contact.CONTENT_URI, Contact.METHOD_APPLY_CHANGES,
+                    null, extras);
+
+            since = remote.version;
+            state.edit().putLong(KEY_SERVER_VERSION, since).commit();
+
+            if (remote.changes.size() < BATCH_SIZE)
+                return;
+        }
+    }
+
+    // Идентификатор этого клиента; создается при первой синхронизации.
+    private String clientId() {
+        String clientId = state.getString(KEY_CLIENT_ID, null);
+        if (clientId == null) {
+            clientId = UUID.randomUUID().toString();
+            state.edit().putString(KEY_CLIENT_ID, clientId).commit();
+        }
+        return clientId;
+    }
+
+    // Изменение в строке курсора contacts/changes.
+    private static ContentValues readChange(Cursor cursor) {
+        ContentValues change = new ContentValues();
+        change.put(Contact.COLUMN_SYNC_ID, cursor.getString(Contact.CHANGE_INDEX_SYNC_ID));
+        change.put(Contact.CHANGE_COLUMN_DELETED,
+                cursor.getInt(Contact.CHANGE_INDEX_DELETED) != 0);
+
+        for (int i = 1; i < Contact.ALL_COLUMNS.length; i++) {
+            change.put(Contact.ALL_COLUMNS[i],
+                    cursor.getString(Contact.CHANGE_INDEX_FIRST_DATA + i - 1));
+        }
+        return change;
+    }
+}
@@ -0,0 +1,36 @@
+package com.omelchenkoaleks.addressbook.sync;
+
+import android.content.ContentValues;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Сервер синхронизации контактов.
+ * Изменение - ContentValues со столбцами Contact.COLUMN_SYNC_ID,
+ * Contact.CHANGE_COLUMN_DELETED и столбцами данных контакта.
+ * Сервер нумерует принятые изменения возрастающими версиями; клиент запрашивает
+ * изменения после последней полученной версии. Реализация для тестов может
+ * хранить изменения в памяти.
+ */
+public interface SyncServer {
+
+    /**
+     * Порция изменений с сервера и версия последнего изменения порции.
+     */
+    final class Changes {
+        public final List<ContentValues> changes;
+        public final long version;
+
+        public Changes(List<ContentValues> changes, long version) {
+            this.changes = changes;
+            this.version = version;
+        }
+    }
+
+    // Принимает локальные изменения клиента.
+    void push(List<ContentValues> changes) throws IOException;
+
+    // Возвращает не больше limit изменений с версией больше since.
+    Changes pull(long since, int limit) throws IOException;
+}
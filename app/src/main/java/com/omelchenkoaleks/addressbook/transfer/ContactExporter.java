@@ -0,0 +1,96 @@
+package com.omelchenkoaleks.addressbook.transfer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import com.omelchenkoaleks.addressbook.data.ContactRecord;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Потоковый экспорт таблицы contacts в ContactWriter.
+ * Таблица читается порциями по CHUNK_SIZE строк с постраничным запросом по
+ * ключу (sort_key, _id), поэтому в памяти одновременно находится одна порция
+ * независимо от количества контактов. Каждая строка кодируется сразу в поток.
+ */
+public class ContactExporter {
+
+    // Количество строк в одном запросе к провайдеру.
+    static final int CHUNK_SIZE = 500;
+
+    // Все столбцы контакта и ключ сортировки для запроса следующей порции.
+    private static final String[] PROJECTION = new String[Contact.ALL_COLUMNS.length + 1];
+
+    static {
+        System.arraycopy(Contact.ALL_COLUMNS, 0, PROJECTION, 0, Contact.ALL_COLUMNS.length);
+        PROJECTION[Contact.ALL_COLUMNS.length] = Contact.COLUMN_SORT_KEY;
+    }
+
+    private final ContentResolver contentResolver;
+
+    // Конструктор.
+    public ContactExporter(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    // Поток UTF-8 для записи в файловый дескриптор, например полученный
+    // через Storage Access Framework.
+    public static Writer openWriter(ParcelFileDescriptor descriptor) {
+        return new OutputStreamWriter(
+                new FileOutputStream(descriptor.getFileDescriptor()),
+                Charset.forName("UTF-8"));
+    }
+
+    // Записывает все контакты в writer и закрывает его.
+    // Возвращает количество записанных контактов.
+    public long exportContacts(ContactWriter writer) throws IOException {
+        long exported = 0;
+        ContactRecord contact = null;
+        String sortKey = null;
+
+        try {
+            Uri chunkUri = Contact.buildPageUri(0, CHUNK_SIZE);
+
+            while (chunkUri != null) {
+                Cursor cursor = contentResolver.query(chunkUri, PROJECTION,
+                        null, null, null);
+                if (cursor == null)
+                    break;
+
+                try {
+                    // Индексы столбцов определяются один раз на порцию.
+                    ContactRecord.Columns columns = ContactRecord.columnsOf(cursor);
+                    int sortKeyIndex = Contact.ALL_COLUMNS.length;
+                    while (cursor.moveToNext()) {
+                        contact = columns.read(cursor);
+                        sortKey = cursor.getString(sortKeyIndex);
+                        writer.write(contact);
+                        exported++;
+                    }
+
+                    // Неполная порция - последняя. Для контакта без ключа
+                    // сортировки следующая порция запрашивается по смещению.
+                    if (cursor.getCount() < CHUNK_SIZE)
+                        chunkUri = null;
+                    else if (sortKey != null)
+                        chunkUri = Contact.buildPageUri(sortKey, contact.getId(), CHUNK_SIZE);
+                    else
+                        chunkUri = Contact.buildPageUri((int) exported, CHUNK_SIZE);
+                } finally {
+                    cursor.close();
+                }
+            }
+        } finally {
+            writer.close();
+        }
+
+        return exported;
+    }
+}
@@ -0,0 +1,96 @@
+package com.omelchenkoaleks.addressbook.transfer;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Потоковый импорт контактов из ContactReader в AddressBookContentProvider.
+ * Записи читаются по одной и передаются провайдеру пакетами по BATCH_SIZE
+ * через bulkInsert, то есть одной транзакцией на пакет.
+ * После каждого пакета количество сохраненных записей записывается в
+ * SharedPreferences под ключом источника; если импорт прервался, повторный
+ * запуск с тем же ключом пропускает уже сохраненные записи. Пакет, который
+ * был зафиксирован, но не успел попасть в контрольную точку, будет вставлен
+ * повторно.
+ */
+public class ContactImporter {
+
+    /**
+     * Получает количество импортированных записей после каждого пакета.
+     */
+    public interface ProgressListener {
+        void onProgress(long importedRecords);
+    }
+
+    // Количество записей в одной транзакции.
+    static final int BATCH_SIZE = 1000;
+
+    private final ContentResolver contentResolver;
+    private final SharedPreferences checkpoints;
+
+    // Конструктор.
+    public ContactImporter(ContentResolver contentResolver, SharedPreferences checkpoints) {
+        this.contentResolver = contentResolver;
+        this.checkpoints = checkpoints;
+    }
+
+    // Импортирует все записи reader. sourceKey идентифицирует файл импорта
+    // для возобновления после сбоя. Возвращает общее количество записей источника,
+    // сохраненных в базе данных, включая сохраненные предыдущими запусками.
+    public long importContacts(String sourceKey, ContactReader reader,
+                               ProgressListener listener) throws IOException {
+
+        long committed = checkpoints.getLong(sourceKey, 0);
+
+        // Пропуск записей, сохраненных до сбоя.
+        for (long skipped = 0; skipped < committed; skipped++) {
+            if (reader.next() == null)
+                break;
+        }
+
+        ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        int batchSize = 0;
+        ContentValues values;
+
+        while ((values = reader.next()) != null) {
+            batch[batchSize++] = values;
+
+            if (batchSize == BATCH_SIZE) {
+                committed = insertBatch(sourceKey, batch, committed);
+                batchSize = 0;
+                if (listener != null)
+                    listener.onProgress(committed);
+            }
+        }
+
+        if (batchSize > 0) {
+            committed = insertBatch(sourceKey,
+                    Arrays.copyOf(batch, batchSize), committed);
+            if (listener != null)
+                listener.onProgress(committed);
+        }
+
+        // Импорт завершен - контрольная точка больше не нужна.
+        checkpoints.edit().remove(sourceKey).commit();
+        return committed;
+    }
+
+    // Вставляет пакет одной транзакцией и сохраняет контрольную точку.
+    // Возвращает количество сохраненных записей источника с учетом пакета.
+    private long insertBatch(String sourceKey, ContentValues[] batch, long committed) {
+        contentResolver.bulkInsert(Contact.CONTENT_URI, batch);
+
+        committed += batch.length;
+        checkpoints.edit().putLong(sourceKey, committed).commit();
+
+        // Ссылки на записи пакета освобождаются для сборщика мусора.
+        Arrays.fill(batch, null);
+        return committed;
+    }
+}
@@ -0,0 +1,17 @@
+package com.omelchenkoaleks.addressbook.transfer;
+
+import android.content.ContentValues;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Последовательно читает контакты из файла импорта.
+ * Реализации держат в памяти только текущую запись, поэтому размер файла
+ * не влияет на потребление памяти.
+ */
+public interface ContactReader extends Closeable {
+
+    // Следующая запись со столбцами Contact или null, если записей больше нет.
+    ContentValues next() throws IOException;
+}
@@ -0,0 +1,16 @@
+package com.omelchenkoaleks.addressbook.transfer;
+
+import com.omelchenkoaleks.addressbook.data.ContactRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Последовательно записывает контакты в файл экспорта.
+ * Реализации кодируют каждую запись сразу в поток и ничего не накапливают в памяти.
+ */
+public interface ContactWriter extends Closeable {
+
+    // Записывает контакт.
+    void write(ContactRecord contact) throws IOException;
+}
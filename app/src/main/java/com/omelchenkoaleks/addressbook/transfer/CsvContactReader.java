@@ -0,0 +1,142 @@
+package com.omelchenkoaleks.addressbook.transfer;
+
+import android.content.ContentValues;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Читает контакты из файла CSV.
+ * Первая строка файла - заголовок с именами столбцов; столбцы, имена которых
+ * совпадают с именами столбцов таблицы contacts, переносятся в контакт,
+ * остальные пропускаются. Поля в кавычках могут содержать запятые,
+ * удвоенные кавычки и переводы строк. Пустое поле без кавычек - NULL,
+ * пустое поле в кавычках ("") - пустая строка.
+ */
+public class CsvContactReader implements ContactReader {
+
+    private final BufferedReader reader;
+
+    // Столбец таблицы contacts для каждого поля строки или null, если поле пропускается.
+    private String[] columns;
+
+    // Буферы текущей строки, используются повторно; null в fields - пустое
+    // поле без кавычек.
+    private final List<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+
+    // В текущем поле были кавычки.
+    private boolean fieldQuoted;
+
+    // Конструктор.
+    public CsvContactReader(Reader reader) {
+        this.reader = new BufferedReader(reader);
+    }
+
+    @Override
+    public ContentValues next() throws IOException {
+        if (columns == null && !readHeader())
+            return null;
+
+        // Пустые строки пропускаются.
+        do {
+            if (!readRecord())
+                return null;
+        } while (fields.size() == 1 && fields.get(0) == null);
+
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < fields.size() && i < columns.length; i++) {
+            if (columns[i] != null)
+                values.put(columns[i], fields.get(i));
+        }
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    // Читает заголовок и сопоставляет поля со столбцами таблицы.
+    private boolean readHeader() throws IOException {
+        if (!readRecord())
+            return false;
+
+        columns = new String[fields.size()];
+        for (int i = 0; i < columns.length; i++) {
+            if (fields.get(i) == null)
+                continue;
+            String name = fields.get(i).trim().toLowerCase(Locale.ROOT);
+
+            for (String column : Contact.ALL_COLUMNS) {
+                if (column.equals(name) && !column.equals(Contact._ID))
+                    columns[i] = column;
+            }
+        }
+        return true;
+    }
+
+    // Читает одну запись в fields. Возвращает false в конце файла.
+    private boolean readRecord() throws IOException {
+        fields.clear();
+        field.setLength(0);
+        fieldQuoted = false;
+
+        String line = reader.readLine();
+        if (line == null)
+            return false;
+
+        boolean quoted = false;
+
+        while (true) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+
+                if (quoted) {
+                    if (c == '"') {
+                        if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                    fieldQuoted = true;
+                } else if (c == ',') {
+                    addField();
+                } else {
+                    field.append(c);
+                }
+            }
+
+            // Перевод строки внутри кавычек - часть значения поля.
+            if (!quoted)
+                break;
+
+            line = reader.readLine();
+            if (line == null)
+                break;
+            field.append('\n');
+        }
+
+        addField();
+        return true;
+    }
+
+    // Добавляет прочитанное поле в fields и начинает следующее.
+    private void addField() {
+        fields.add(field.length() > 0 || fieldQuoted ? field.toString() : null);
+        field.setLength(0);
+        fieldQuoted = false;
+    }
+}
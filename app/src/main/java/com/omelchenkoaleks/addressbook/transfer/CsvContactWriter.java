@@ -0,0 +1,83 @@
+package com.omelchenkoaleks.addressbook.transfer;
+
+import com.omelchenkoaleks.addressbook.data.ContactRecord;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Записывает контакты в файл CSV.
+ * Заголовок содержит имена столбцов таблицы contacts (без _id), поэтому
+ * файл читается обратно CsvContactReader. NULL записывается пустым полем,
+ * пустая строка - пустым полем в кавычках.
+ */
+public class CsvContactWriter implements ContactWriter {
+
+    private final Writer writer;
+    private boolean headerWritten;
+
+    // Конструктор.
+    public CsvContactWriter(Writer writer) {
+        this.writer = new BufferedWriter(writer);
+    }
+
+    @Override
+    public void write(ContactRecord contact) throws IOException {
+        if (!headerWritten) {
+            writeHeader();
+            headerWritten = true;
+        }
+
+        // Поля в порядке Contact.ALL_COLUMNS без _id.
+        for (int i = 1; i < Contact.ALL_COLUMNS.length; i++) {
+            if (i > 1)
+                writer.write(',');
+            writeField(contact.get(i));
+        }
+        writer.write("\r\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    // Записывает имена всех столбцов, кроме первого (_id), и перевод строки.
+    private void writeHeader() throws IOException {
+        for (int i = 1; i < Contact.ALL_COLUMNS.length; i++) {
+            if (i > 1)
+                writer.write(',');
+            writeField(Contact.ALL_COLUMNS[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    // Пустое поле или поле с запятой, кавычкой или переводом строки
+    // заключается в кавычки.
+    private void writeField(String value) throws IOException {
+        if (value == null)
+            return;
+
+        boolean needsQuotes = value.isEmpty();
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!needsQuotes) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"')
+                writer.write('"');
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+}
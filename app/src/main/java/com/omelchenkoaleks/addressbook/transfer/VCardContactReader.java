@@ -0,0 +1,185 @@
+package com.omelchenkoaleks.addressbook.transfer;
+
+import android.content.ContentValues;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Читает контакты из файла vCard (версии 2.1, 3.0 и 4.0).
+ * Из каждой карточки берутся FN (или N), первые TEL и EMAIL и первый ADR;
+ * остальные свойства пропускаются. Пустые имя и части адреса не сохраняются
+ * (NULL). Свернутые строки (продолжение начинается
+ * с пробела или табуляции) склеиваются перед разбором.
+ */
+public class VCardContactReader implements ContactReader {
+
+    private final BufferedReader reader;
+
+    // Строка, прочитанная заранее для проверки свертки.
+    private String pendingLine;
+
+    // Буфер текущей развернутой строки, используется повторно.
+    private final StringBuilder line = new StringBuilder();
+
+    // Конструктор.
+    public VCardContactReader(Reader reader) {
+        this.reader = new BufferedReader(reader);
+    }
+
+    @Override
+    public ContentValues next() throws IOException {
+        ContentValues values = null;
+        String structuredName = null;
+
+        while (readUnfoldedLine()) {
+            int colon = line.indexOf(":");
+            if (colon < 0)
+                continue;
+
+            // Имя свойства без параметров и групп: "item1.TEL;TYPE=CELL" -> "TEL".
+            String property = line.substring(0, colon);
+            int semicolon = property.indexOf(';');
+            if (semicolon >= 0)
+                property = property.substring(0, semicolon);
+            int dot = property.lastIndexOf('.');
+            if (dot >= 0)
+                property = property.substring(dot + 1);
+            property = property.toUpperCase(Locale.ROOT);
+
+            String value = line.substring(colon + 1);
+
+            if (property.equals("BEGIN")) {
+                values = new ContentValues();
+                structuredName = null;
+            } else if (values == null) {
+                // Строки вне карточки пропускаются.
+            } else if (property.equals("END")) {
+                if (!values.containsKey(Contact.COLUMN_NAME) &&
+                        structuredName != null && !structuredName.isEmpty())
+                    values.put(Contact.COLUMN_NAME, structuredName);
+                return values;
+            } else if (property.equals("FN")) {
+                if (!value.isEmpty())
+                    values.put(Contact.COLUMN_NAME, unescape(value));
+            } else if (property.equals("N")) {
+                structuredName = formatStructuredName(value);
+            } else if (property.equals("TEL")) {
+                putFirst(values, Contact.COLUMN_PHONE, unescape(value));
+            } else if (property.equals("EMAIL")) {
+                putFirst(values, Contact.COLUMN_EMAIL, unescape(value));
+            } else if (property.equals("ADR") && !values.containsKey(Contact.COLUMN_STREET)) {
+                // ADR: почтовый ящик;доп. адрес;улица;город;регион;индекс;страна
+                String[] parts = splitComponents(value);
+                values.put(Contact.COLUMN_STREET, optionalComponent(parts, 2));
+                values.put(Contact.COLUMN_CITY, optionalComponent(parts, 3));
+                values.put(Contact.COLUMN_STATE, optionalComponent(parts, 4));
+                values.put(Contact.COLUMN_ZIP, optionalComponent(parts, 5));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    // Читает в line одну логическую строку, склеивая свернутые продолжения.
+    private boolean readUnfoldedLine() throws IOException {
+        String first = pendingLine != null ? pendingLine : reader.readLine();
+        pendingLine = null;
+        if (first == null)
+            return false;
+
+        line.setLength(0);
+        line.append(first);
+
+        String next;
+        while ((next = reader.readLine()) != null &&
+                !next.isEmpty() && (next.charAt(0) == ' ' || next.charAt(0) == '\t')) {
+            line.append(next, 1, next.length());
+        }
+        pendingLine = next;
+        return true;
+    }
+
+    // Сохраняет значение, только если столбец еще не заполнен.
+    private static void putFirst(ContentValues values, String column, String value) {
+        if (!values.containsKey(column))
+            values.put(column, value);
+    }
+
+    // N: фамилия;имя;отчество;префикс;суффикс -> "имя отчество фамилия".
+    private static String formatStructuredName(String value) {
+        String[] parts = splitComponents(value);
+        StringBuilder name = new StringBuilder();
+
+        for (int index : new int[]{1, 2, 0}) {
+            String part = component(parts, index);
+            if (!part.isEmpty()) {
+                if (name.length() > 0)
+                    name.append(' ');
+                name.append(part);
+            }
+        }
+        return name.toString();
+    }
+
+    // Разбивает структурированное значение по неэкранированным ';'.
+    // Экранирование остается в компонентах и снимается методом component;
+    // "\\;" - экранированная обратная косая черта и разделитель.
+    private static String[] splitComponents(String value) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '\\') {
+                i++;
+            } else if (c == ';') {
+                parts.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(value.substring(start));
+        return parts.toArray(new String[parts.size()]);
+    }
+
+    // Компонент структурированного значения или пустая строка.
+    private static String component(String[] parts, int index) {
+        return index < parts.length ? unescape(parts[index]).trim() : "";
+    }
+
+    // Компонент структурированного значения или null, если он пуст.
+    private static String optionalComponent(String[] parts, int index) {
+        String part = component(parts, index);
+        return part.isEmpty() ? null : part;
+    }
+
+    // Снимает экранирование vCard: \n, \, \; \\.
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0)
+            return value;
+
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '\\' && i + 1 < value.length()) {
+                char escaped = value.charAt(++i);
+                result.append(escaped == 'n' || escaped == 'N' ? '\n' : escaped);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
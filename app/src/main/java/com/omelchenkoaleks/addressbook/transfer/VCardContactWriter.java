@@ -0,0 +1,85 @@
+package com.omelchenkoaleks.addressbook.transfer;
+
+import com.omelchenkoaleks.addressbook.data.ContactRecord;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Записывает контакты в файл vCard 3.0, который читается VCardContactReader.
+ */
+public class VCardContactWriter implements ContactWriter {
+
+    private final Writer writer;
+
+    // Конструктор.
+    public VCardContactWriter(Writer writer) {
+        this.writer = new BufferedWriter(writer);
+    }
+
+    @Override
+    public void write(ContactRecord contact) throws IOException {
+        writer.write("BEGIN:VCARD\r\nVERSION:3.0\r\n");
+
+        writer.write("FN:");
+        writeEscaped(contact.getName());
+        // Свойство N обязательно в vCard 3.0; имя не разбирается на части.
+        writer.write("\r\nN:");
+        writeEscaped(contact.getName());
+        writer.write(";;;;\r\n");
+
+        if (!isEmpty(contact.getPhone())) {
+            writer.write("TEL:");
+            writeEscaped(contact.getPhone());
+            writer.write("\r\n");
+        }
+        if (!isEmpty(contact.getEmail())) {
+            writer.write("EMAIL:");
+            writeEscaped(contact.getEmail());
+            writer.write("\r\n");
+        }
+        if (!isEmpty(contact.getStreet()) || !isEmpty(contact.getCity()) ||
+                !isEmpty(contact.getState()) || !isEmpty(contact.getZip())) {
+            writer.write("ADR:;;");
+            writeEscaped(contact.getStreet());
+            writer.write(';');
+            writeEscaped(contact.getCity());
+            writer.write(';');
+            writeEscaped(contact.getState());
+            writer.write(';');
+            writeEscaped(contact.getZip());
+            writer.write(";\r\n");
+        }
+
+        writer.write("END:VCARD\r\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    // Экранирование vCard: \\, \, \; и \n.
+    private void writeEscaped(String value) throws IOException {
+        if (value == null)
+            return;
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '\\' || c == ',' || c == ';') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c == '\n') {
+                writer.write("\\n");
+            } else if (c != '\r') {
+                writer.write(c);
+            }
+        }
+    }
+}
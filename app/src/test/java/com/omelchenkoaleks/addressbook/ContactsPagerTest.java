@@ -0,0 +1,294 @@
+package com.omelchenkoaleks.addressbook;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+
+import com.omelchenkoaleks.addressbook.data.AddressBookContentProvider;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Загрузка страниц ContactsPager по ключу (sort_key, _id): назад от
+ * загруженной страницы, обновление окна с ключа его первого контакта
+ * и загрузка списка заново, если позиции страниц сдвинулись.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ContactsPagerTest {
+
+    // Шесть страниц.
+    private static final int CONTACTS = 6 * ContactsPager.PAGE_SIZE;
+
+    private static final long TIMEOUT_MS = 5000;
+
+    /**
+     * Провайдер, который запоминает Uri постраничных запросов.
+     */
+    public static class RecordingProvider extends AddressBookContentProvider {
+
+        static final List<Uri> pageUris = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder,
+                            CancellationSignal cancellationSignal) {
+            if (uri.getQueryParameter(Contact.PARAM_LIMIT) != null)
+                pageUris.add(uri);
+            return super.query(uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+        }
+    }
+
+    // Условие, которого ожидает await.
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private ContentResolver contentResolver;
+    private RecordingCallback callback;
+    private ContactsPager pager;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        Context context = RuntimeEnvironment.application;
+        context.deleteDatabase("AddressBook.db");
+        Robolectric.buildContentProvider(RecordingProvider.class)
+                .create(DatabaseDescription.AUTHORITY);
+        contentResolver = context.getContentResolver();
+
+        ContentValues[] values = new ContentValues[CONTACTS];
+        for (int i = 0; i < CONTACTS; i++) {
+            values[i] = new ContentValues();
+            values[i].put(Contact.COLUMN_NAME, name(i));
+        }
+        contentResolver.bulkInsert(Contact.CONTENT_URI, values);
+
+        callback = new RecordingCallback();
+        pager = new ContactsPager(contentResolver, null, callback);
+        pager.refresh();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return callback.countChanges > 0;
+            }
+        });
+        RecordingProvider.pageUris.clear();
+    }
+
+    @After
+    public void tearDown() {
+        pager.close();
+    }
+
+    @Test
+    public void pagesBeforeLoadedPageAreQueriedByKey() throws InterruptedException {
+        // Переход к позиции без загруженных соседей - по смещению.
+        int last = CONTACTS - ContactsPager.PAGE_SIZE / 2;
+        load(last);
+        assertEquals(Contact.PARAM_OFFSET, pagingParameter(0));
+
+        // Предыдущая страница - по ключу первого контакта загруженной.
+        int previous = last - ContactsPager.PAGE_SIZE;
+        load(previous);
+        assertEquals(Contact.PARAM_BEFORE_KEY, pagingParameter(1));
+        for (int position = previous - ContactsPager.PAGE_SIZE / 2;
+             position < CONTACTS; position++)
+            assertEquals(name(position), pager.getName(position));
+    }
+
+    @Test
+    public void refreshReloadsWindowFromItsFirstKey() throws InterruptedException {
+        int position = CONTACTS - ContactsPager.PAGE_SIZE / 2;
+        load(position);
+
+        final int countChanges = callback.countChanges;
+        final int updates = callback.updates;
+        ContentValues values = new ContentValues();
+        values.put(Contact.COLUMN_NAME, name(position) + " renamed");
+        contentResolver.update(contactUri(position), values, null, null);
+        RecordingProvider.pageUris.clear();
+
+        pager.refresh();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return callback.updates > updates;
+            }
+        });
+
+        assertEquals(Contact.PARAM_AFTER_KEY, pagingParameter(0));
+        assertEquals(countChanges, callback.countChanges);
+        assertEquals(name(position) + " renamed", pager.getName(position));
+    }
+
+    @Test
+    public void shiftedPositionsReloadListFromStart() throws InterruptedException {
+        int position = 3 * ContactsPager.PAGE_SIZE + ContactsPager.PAGE_SIZE / 2;
+        load(position);
+
+        // Контакты перед окном удаляются; окно загружается с ключа и их не
+        // видит, количество уменьшается в конце окна.
+        final int removed = 10;
+        deleteFirst(removed);
+        final int countChanges = callback.countChanges;
+        pager.refresh();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return pager.getCount() == CONTACTS - removed;
+            }
+        });
+        assertEquals(countChanges, callback.countChanges);
+
+        // Прокрутка к началу: перед первой страницей контактов меньше, чем
+        // страница, и список загружается заново с начала.
+        for (int page = position / ContactsPager.PAGE_SIZE - 1;
+             callback.countChanges == countChanges; page--) {
+            assertTrue(page >= 0);
+            final int pagePosition = page * ContactsPager.PAGE_SIZE +
+                    ContactsPager.PAGE_SIZE / 2;
+            pager.loadAround(pagePosition);
+            await(new Condition() {
+                @Override
+                public boolean isMet() {
+                    return pager.getName(pagePosition) != null ||
+                            callback.countChanges > countChanges;
+                }
+            });
+        }
+
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return pager.getName(0) != null;
+            }
+        });
+        assertEquals(name(removed), pager.getName(0));
+        assertNull(pager.getName(position));
+    }
+
+    @Test
+    public void removalsThatDoNotFitAfterWindowReloadListFromStart()
+            throws InterruptedException {
+        // Окно - последняя страница, после него строк нет.
+        int position = CONTACTS - ContactsPager.PAGE_SIZE / 2;
+        load(position);
+
+        final int removed = 10;
+        deleteFirst(removed);
+        final int countChanges = callback.countChanges;
+        pager.refresh();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return callback.countChanges > countChanges;
+            }
+        });
+
+        assertEquals(CONTACTS - removed, pager.getCount());
+        assertEquals(name(removed), pager.getName(0));
+    }
+
+    // Удаляет первые count контактов списка.
+    private void deleteFirst(int count) {
+        for (int i = 0; i < count; i++)
+            assertEquals(1, contentResolver.delete(contactUri(i), null, null));
+    }
+
+    // Контакты вставлены по порядку в новую таблицу: _id = позиция + 1.
+    private static Uri contactUri(int position) {
+        return Contact.buildContactUri(position + 1);
+    }
+
+    // Загружает страницу позиции и ждет ее.
+    private void load(final int position) throws InterruptedException {
+        pager.loadAround(position);
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return pager.getName(position) != null;
+            }
+        });
+    }
+
+    // Параметр, по которому выбрана index-я записанная страница.
+    private static String pagingParameter(int index) {
+        Uri uri = RecordingProvider.pageUris.get(index);
+        assertNotNull(uri);
+        if (uri.getQueryParameter(Contact.PARAM_AFTER_KEY) != null)
+            return Contact.PARAM_AFTER_KEY;
+        if (uri.getQueryParameter(Contact.PARAM_BEFORE_KEY) != null)
+            return Contact.PARAM_BEFORE_KEY;
+        return Contact.PARAM_OFFSET;
+    }
+
+    private static String name(int position) {
+        return String.format("Contact %04d", position);
+    }
+
+    // Выполняет задачи главного потока, пока условие не выполнится.
+    private static void await(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+        while (!condition.isMet()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasks();
+        }
+    }
+
+    // Считает события списка.
+    private static final class RecordingCallback implements ContactsPager.Callback {
+        int countChanges;
+        int updates;
+
+        @Override
+        public void onCountChanged() {
+            countChanges++;
+        }
+
+        @Override
+        public void onRangeLoaded(int start, int count) {
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            updates++;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            updates++;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            updates++;
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            updates++;
+        }
+    }
+}
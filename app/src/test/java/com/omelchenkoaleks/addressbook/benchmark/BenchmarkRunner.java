@@ -0,0 +1,110 @@
+package com.omelchenkoaleks.addressbook.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Простейший замер в стиле JMH: прогревочные итерации, затем измерительные
+ * итерации с подсчетом операций в секунду и байтов, выделенных на операцию.
+ * Выделения памяти считаются через com.sun.management.ThreadMXBean по всем
+ * потокам процесса, потому что Robolectric выполняет вызовы SQLite в своем
+ * потоке. В сумму попадают и выделения посторонних потоков (например, потоков
+ * Gradle), выделения потоков, завершившихся во время итерации, теряются,
+ * а память SQLite вне кучи Java не учитывается.
+ * Для операций, у которых важна задержка каждого вызова, печатаются процентили,
+ * для однократных проходов по таблице или файлу - строки и байты в секунду.
+ */
+final class BenchmarkRunner {
+
+    /**
+     * Одна итерация замера: выполняет operations операций.
+     */
+    interface Operation {
+        void run(int operations) throws Exception;
+    }
+
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+
+    private BenchmarkRunner() {
+    }
+
+    // Выполняет замер и печатает среднее по измерительным итерациям.
+    static void measure(String name, int datasetSize, int operations, Operation operation)
+            throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++)
+            operation.run(operations);
+
+        long totalNanos = 0;
+        long totalBytes = 0;
+
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            operation.run(operations);
+            totalNanos += System.nanoTime() - start;
+            totalBytes += allocatedBytes() - bytesBefore;
+        }
+
+        long measuredOperations = (long) operations * MEASUREMENT_ITERATIONS;
+        System.out.println(String.format(Locale.ROOT,
+                "%-24s rows=%-8d %12.1f ops/s %10.1f us/op %12d B/op",
+                name, datasetSize,
+                measuredOperations * 1e9 / totalNanos,
+                totalNanos / 1e3 / measuredOperations,
+                totalBytes / measuredOperations));
+    }
+
+    // Печатает процентили задержек отдельных операций в микросекундах.
+    static void percentiles(String name, int datasetSize, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.println(String.format(Locale.ROOT,
+                "%-24s rows=%-8d %10.1f us p50 %10.1f us p95 %10.1f us max",
+                name, datasetSize,
+                percentile(sorted, 50) / 1e3,
+                percentile(sorted, 95) / 1e3,
+                sorted[sorted.length - 1] / 1e3));
+    }
+
+    // Печатает скорость однократной операции над rows строками и bytes байтами
+    // файла, которая заняла nanos наносекунд.
+    static void throughput(String name, int datasetSize, long rows, long bytes, long nanos) {
+        System.out.println(String.format(Locale.ROOT,
+                "%-24s rows=%-8d %12.1f rows/s %10.2f MB/s",
+                name, datasetSize,
+                rows * 1e9 / nanos,
+                bytes * 1e9 / nanos / (1024 * 1024)));
+    }
+
+    // Печатает объем памяти в мегабайтах.
+    static void memory(String name, int datasetSize, long bytes) {
+        System.out.println(String.format(Locale.ROOT,
+                "%-24s rows=%-8d %12.1f MB",
+                name, datasetSize, bytes / (1024.0 * 1024)));
+    }
+
+    // Значение, которое не превышает percent процентов отсортированных значений.
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    // Байты, выделенные живыми потоками процесса, или 0, если JVM не поддерживает
+    // подсчет.
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return 0;
+
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            // -1 - поток завершился или подсчет для него недоступен.
+            if (bytes > 0)
+                total += bytes;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,744 @@
+package com.omelchenkoaleks.addressbook.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+
+import com.omelchenkoaleks.addressbook.ContactsPager;
+import com.omelchenkoaleks.addressbook.data.AddressBookContentProvider;
+import com.omelchenkoaleks.addressbook.data.ContactRecord;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+import com.omelchenkoaleks.addressbook.transfer.ContactExporter;
+import com.omelchenkoaleks.addressbook.transfer.ContactImporter;
+import com.omelchenkoaleks.addressbook.transfer.ContactWriter;
+import com.omelchenkoaleks.addressbook.transfer.CsvContactReader;
+import com.omelchenkoaleks.addressbook.transfer.CsvContactWriter;
+import com.omelchenkoaleks.addressbook.transfer.VCardContactWriter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Замеры слоя данных: AddressBookContentProvider и AddressBookDatabaseHelper,
+ * а также ContactsPager, импорт и экспорт на сгенерированных наборах контактов
+ * под Robolectric.
+ * Запуск: ./gradlew :app:testDebugUnitTest -Pbenchmark -Pbenchmark.sizes=1000,100000,1000000
+ * Без свойства benchmark эти тесты исключаются из обычного запуска unit-тестов.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DataLayerBenchmark {
+
+    // Размер пакета bulkInsert при заполнении и замере пакетной вставки.
+    private static final int BATCH_SIZE = 1000;
+
+    // Размер страницы списка.
+    private static final int PAGE_SIZE = 50;
+
+    // Количество первых совпадений поиска, как в ContactSearchController.
+    private static final int FIRST_RESULTS = 30;
+
+    // Наибольшее окно страниц в памяти, как ContactsPager.MAX_RETAINED_PAGES.
+    private static final int WINDOW_PAGES = 8;
+
+    // Количество замеров задержки для процентилей и прогревочных замеров перед ними.
+    private static final int SAMPLES = 100;
+    private static final int WARMUP_SAMPLES = 10;
+
+    // Предельное время ожидания событий ContactsPager в главном потоке.
+    private static final long TIMEOUT_MS = 60000;
+
+    // Импорт проверяет кучу после каждых HEAP_SAMPLE_BATCHES пакетов.
+    private static final int HEAP_SAMPLE_BATCHES = 100;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] FIRST_NAMES = {"Александр", "Мария", "Ivan", "Olga",
+            "Дмитрий", "Anna", "Sergey", "Елена", "Pavel", "Natalia", "John", "Emma"};
+    private static final String[] LAST_NAMES = {"Омельченко", "Smith", "Иванов", "Petrova",
+            "Кузнецов", "Brown", "Соколова", "Miller", "Попов", "Wilson"};
+    private static final String[] CITIES = {"Kyiv", "Москва", "London", "Berlin", "Одесса"};
+
+    // Условие, которого ожидает await.
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private final Random random = new Random(42);
+    private AddressBookContentProvider provider;
+    private ContentResolver contentResolver;
+    private int datasetSize;
+
+    @Test
+    public void dataLayer() throws Exception {
+        String sizes = System.getProperty("benchmark.sizes", "1000,10000");
+
+        for (String size : sizes.split(",")) {
+            datasetSize = Integer.parseInt(size.trim());
+            createDataset();
+            runBenchmarks();
+        }
+    }
+
+    // Новая база данных с datasetSize контактами.
+    private void createDataset() {
+        RuntimeEnvironment.application.deleteDatabase("AddressBook.db");
+        provider = Robolectric.buildContentProvider(AddressBookContentProvider.class)
+                .create(DatabaseDescription.AUTHORITY).get();
+        contentResolver = RuntimeEnvironment.application.getContentResolver();
+
+        ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        for (int inserted = 0; inserted < datasetSize; inserted += BATCH_SIZE) {
+            int size = Math.min(BATCH_SIZE, datasetSize - inserted);
+            if (size != batch.length)
+                batch = new ContentValues[size];
+            for (int i = 0; i < size; i++)
+                batch[i] = randomContact();
+            provider.bulkInsert(Contact.CONTENT_URI, batch);
+        }
+    }
+
+    private void runBenchmarks() throws Exception {
+        BenchmarkRunner.measure("insert", datasetSize, 200, new BenchmarkRunner.Operation() {
+            @Override
+            public void run(int operations) {
+                for (int i = 0; i < operations; i++)
+                    provider.insert(Contact.CONTENT_URI, randomContact());
+            }
+        });
+
+        final ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        for (int i = 0; i < batch.length; i++)
+            batch[i] = randomContact();
+        BenchmarkRunner.measure("bulkInsert x" + BATCH_SIZE, datasetSize, 1,
+                new BenchmarkRunner.Operation() {
+                    @Override
+                    public void run(int operations) {
+                        for (int i = 0; i < operations; i++)
+                            provider.bulkInsert(Contact.CONTENT_URI, batch);
+                    }
+                });
+
+        BenchmarkRunner.measure("listFirstPage", datasetSize, 200,
+                new BenchmarkRunner.Operation() {
+                    @Override
+                    public void run(int operations) {
+                        for (int i = 0; i < operations; i++)
+                            consume(provider.query(Contact.buildPageUri(0, PAGE_SIZE),
+                                    Contact.LIST_PROJECTION, null, null, null));
+                    }
+                });
+
+        BenchmarkRunner.measure("sortedScan", datasetSize, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public void run(int operations) {
+                for (int i = 0; i < operations; i++)
+                    scanByKeyset();
+            }
+        });
+
+        BenchmarkRunner.measure("singleFetch", datasetSize, 1000,
+                new BenchmarkRunner.Operation() {
+                    @Override
+                    public void run(int operations) {
+                        for (int i = 0; i < operations; i++)
+                            consume(provider.query(randomContactUri(), null, null, null, null));
+                    }
+                });
+
+        // Условие "1" исключает кеш контактов и измеряет чтение из SQLite.
+        BenchmarkRunner.measure("singleFetchUncached", datasetSize, 1000,
+                new BenchmarkRunner.Operation() {
+                    @Override
+                    public void run(int operations) {
+                        for (int i = 0; i < operations; i++)
+                            consume(provider.query(randomContactUri(), null, "1", null, null));
+                    }
+                });
+
+        BenchmarkRunner.measure("update", datasetSize, 200, new BenchmarkRunner.Operation() {
+            @Override
+            public void run(int operations) {
+                for (int i = 0; i < operations; i++)
+                    provider.update(randomContactUri(), randomContact(), null, null);
+            }
+        });
+
+        BenchmarkRunner.measure("delete", datasetSize, 100, new BenchmarkRunner.Operation() {
+            @Override
+            public void run(int operations) {
+                for (int i = 0; i < operations; i++)
+                    provider.delete(randomContactUri(), null, null);
+            }
+        });
+
+        BenchmarkRunner.measure("search", datasetSize, 100, new BenchmarkRunner.Operation() {
+            @Override
+            public void run(int operations) {
+                for (int i = 0; i < operations; i++)
+                    consume(provider.query(Contact.buildSearchUri(
+                            FIRST_NAMES[i % FIRST_NAMES.length].substring(0, 3)),
+                            Contact.LIST_PROJECTION, null, null, null));
+            }
+        });
+
+        measureSearchAsYouType();
+
+        BenchmarkRunner.measure("phoneLookup", datasetSize, 1000,
+                new BenchmarkRunner.Operation() {
+                    @Override
+                    public void run(int operations) {
+                        for (int i = 0; i < operations; i++)
+                            consume(provider.query(Contact.buildPhoneLookupUri(randomPhone()),
+                                    Contact.LIST_PROJECTION, null, null, null));
+                    }
+                });
+
+        // Чтение полной записи из строк заполненного курсора: индексы столбцов
+        // по имени для каждой строки, ContactRecord с поиском индексов по набору
+        // столбцов (как при каждой перезагрузке фрагмента) и с индексами,
+        // полученными один раз (как при экспорте).
+        final Cursor records = provider.query(Contact.buildPageUri(0, PAGE_SIZE),
+                Contact.ALL_COLUMNS, null, null, null);
+        final int recordCount = records.getCount();
+        try {
+            BenchmarkRunner.measure("decodeGetColumnIndex", datasetSize, 100000,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public void run(int operations) {
+                            for (int i = 0; i < operations; i++) {
+                                records.moveToPosition(i % recordCount);
+                                decodeByColumnIndex(records);
+                            }
+                        }
+                    });
+
+            BenchmarkRunner.measure("decodeRecord", datasetSize, 100000,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public void run(int operations) {
+                            for (int i = 0; i < operations; i++) {
+                                records.moveToPosition(i % recordCount);
+                                ContactRecord.fromCursor(records);
+                            }
+                        }
+                    });
+
+            BenchmarkRunner.measure("decodeRecordColumns", datasetSize, 100000,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public void run(int operations) {
+                            ContactRecord.Columns columns = ContactRecord.columnsOf(records);
+                            for (int i = 0; i < operations; i++) {
+                                records.moveToPosition(i % recordCount);
+                                columns.read(records);
+                            }
+                        }
+                    });
+        } finally {
+            records.close();
+        }
+
+        measureMetricsOverhead();
+        measureRefreshDiff();
+        measureTimeToFirstRow();
+
+        // Поиск дубликатов после повторного импорта части контактов.
+        addDuplicates(datasetSize / 10);
+        BenchmarkRunner.measure("duplicates", datasetSize, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public void run(int operations) {
+                for (int i = 0; i < operations; i++)
+                    consume(provider.query(Contact.DUPLICATES_URI, null, null, null, null));
+            }
+        });
+
+        // Эти замеры добавляют контакты, поэтому выполняются последними.
+        measureReadsUnderWrites();
+        measureImport(measureExport());
+    }
+
+    // Обновление списка после изменения контакта: ContactsPager с заполненным
+    // окном страниц заново загружает окно и сравнивает его со старым DiffUtil в
+    // фоновом потоке. Окно - не больше WINDOW_PAGES страниц при любом размере
+    // таблицы. Печатаются процентили времени от refresh до доставки событий
+    // списка в главный поток; для 50 000 контактов - -Pbenchmark.sizes=50000.
+    private void measureRefreshDiff() throws InterruptedException {
+        final PagerEvents events = new PagerEvents();
+        final ContactsPager pager = new ContactsPager(contentResolver, null, events);
+
+        pager.refresh();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return events.countChanges > 0;
+            }
+        });
+        int windowSize = Math.min(pager.getCount(), WINDOW_PAGES * PAGE_SIZE);
+        for (int start = 0; start < windowSize; start += PAGE_SIZE) {
+            final int position = Math.min(start + PAGE_SIZE / 2, windowSize - 1);
+            pager.loadAround(position);
+            await(new Condition() {
+                @Override
+                public boolean isMet() {
+                    return pager.getName(position) != null;
+                }
+            });
+        }
+
+        long[] nanos = new long[SAMPLES];
+        for (int i = -WARMUP_SAMPLES; i < SAMPLES; i++) {
+            // Имя контакта в окне меняется, поэтому каждое обновление дает
+            // хотя бы одно событие. Повторное изменение возвращает прежнее имя.
+            int position = random.nextInt(windowSize);
+            String name = pager.getName(position);
+            ContentValues values = new ContentValues();
+            values.put(Contact.COLUMN_NAME, name.endsWith(" *") ?
+                    name.substring(0, name.length() - 2) : name + " *");
+            provider.update(Contact.buildContactUri(pager.getId(position)), values,
+                    null, null);
+
+            final int updates = events.updates;
+            long start = System.nanoTime();
+            pager.refresh();
+            await(new Condition() {
+                @Override
+                public boolean isMet() {
+                    return events.updates > updates;
+                }
+            });
+            if (i >= 0)
+                nanos[i] = System.nanoTime() - start;
+        }
+
+        pager.close();
+        BenchmarkRunner.percentiles("refreshDiff", datasetSize, nanos);
+    }
+
+    // Время от создания списка до первой строки в главном потоке: без снимка
+    // первая страница запрашивается у провайдера, со снимком строки читаются
+    // из файла ContactListSnapshot. refresh вызывается сразу после
+    // конструктора, как в ContactsAdapter и ContactsFragment.
+    private void measureTimeToFirstRow() throws InterruptedException {
+        File snapshotFile = new File(RuntimeEnvironment.application.getFilesDir(),
+                "benchmark.snapshot");
+        snapshotFile.delete();
+
+        long[] query = new long[SAMPLES];
+        long[] snapshot = new long[SAMPLES];
+        for (int i = -WARMUP_SAMPLES; i < SAMPLES; i++) {
+            long nanos = timeToFirstRow(null);
+            if (i >= 0)
+                query[i] = nanos;
+        }
+
+        // Первое обновление со снимком записывает файл.
+        timeToFirstRow(snapshotFile);
+        for (int i = -WARMUP_SAMPLES; i < SAMPLES; i++) {
+            long nanos = timeToFirstRow(snapshotFile);
+            if (i >= 0)
+                snapshot[i] = nanos;
+        }
+        snapshotFile.delete();
+
+        BenchmarkRunner.percentiles("firstRowQuery", datasetSize, query);
+        BenchmarkRunner.percentiles("firstRowSnapshot", datasetSize, snapshot);
+    }
+
+    // Время от создания ContactsPager до имени в первой позиции в наносекундах.
+    // Возвращается после завершения первого обновления.
+    private long timeToFirstRow(File snapshotFile) throws InterruptedException {
+        final PagerEvents events = new PagerEvents();
+        // Снимок и результат обновления или только результат обновления.
+        final int countChanges = snapshotFile != null && snapshotFile.exists() ? 2 : 1;
+
+        long start = System.nanoTime();
+        final ContactsPager pager = new ContactsPager(contentResolver, snapshotFile, events);
+        pager.refresh();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return pager.getName(0) != null;
+            }
+        });
+        long nanos = System.nanoTime() - start;
+
+        // Следующий замер не должен застать это обновление в фоновом потоке.
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return events.countChanges >= countChanges;
+            }
+        });
+        pager.close();
+        return nanos;
+    }
+
+    // Задержка чтения первой страницы и одного контакта без записи и пока другой
+    // поток непрерывно вставляет пакеты, как при импорте.
+    // Под Robolectric все вызовы SQLite выполняет один поток, поэтому чтение
+    // и запись чередуются по отдельным вызовам, а не идут параллельно через
+    // пул соединений WAL; параллельное чтение видно только на устройстве.
+    private void measureReadsUnderWrites() throws InterruptedException {
+        measureReads("Idle");
+
+        final ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        for (int i = 0; i < batch.length; i++)
+            batch[i] = randomContact();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final RuntimeException[] failure = new RuntimeException[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (writing.get())
+                        provider.bulkInsert(Contact.CONTENT_URI, batch);
+                } catch (RuntimeException e) {
+                    failure[0] = e;
+                }
+            }
+        });
+
+        writer.start();
+        try {
+            measureReads("Writing");
+        } finally {
+            writing.set(false);
+            writer.join();
+        }
+        if (failure[0] != null)
+            throw failure[0];
+    }
+
+    // Процентили задержки чтения первой страницы и контакта по _id.
+    private void measureReads(String suffix) {
+        long[] firstPage = new long[SAMPLES];
+        long[] singleFetch = new long[SAMPLES];
+
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+            consume(provider.query(Contact.buildPageUri(0, PAGE_SIZE),
+                    Contact.LIST_PROJECTION, null, null, null));
+            firstPage[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            consume(provider.query(randomContactUri(), null, "1", null, null));
+            singleFetch[i] = System.nanoTime() - start;
+        }
+
+        BenchmarkRunner.percentiles("listFirstPage" + suffix, datasetSize, firstPage);
+        BenchmarkRunner.percentiles("singleFetch" + suffix, datasetSize, singleFetch);
+    }
+
+    // Экспорт всей таблицы через ContactExporter в файлы CSV и vCard: строки
+    // и байты файла в секунду. Возвращает файл CSV для замера импорта.
+    private File measureExport() throws IOException {
+        File cacheDir = RuntimeEnvironment.application.getCacheDir();
+        File csv = new File(cacheDir, "benchmark.csv");
+        File vCard = new File(cacheDir, "benchmark.vcf");
+
+        measureExport("exportCsv", csv, new CsvContactWriter(openWriter(csv)));
+        measureExport("exportVCard", vCard, new VCardContactWriter(openWriter(vCard)));
+        vCard.delete();
+        return csv;
+    }
+
+    private void measureExport(String name, File file, ContactWriter writer)
+            throws IOException {
+        long start = System.nanoTime();
+        long rows = new ContactExporter(contentResolver).exportContacts(writer);
+        long nanos = System.nanoTime() - start;
+        BenchmarkRunner.throughput(name, datasetSize, rows, file.length(), nanos);
+    }
+
+    // Импорт файла CSV через ContactImporter: строки и байты файла в секунду
+    // и наибольший прирост кучи после сборки мусора, который проверяется
+    // каждые HEAP_SAMPLE_BATCHES пакетов и в конце импорта. Потоковый импорт
+    // держит в памяти один пакет, поэтому прирост не должен расти с размером
+    // файла; для 1 000 000 записей - -Pbenchmark.sizes=1000000.
+    // Время сборок мусора из времени импорта исключается.
+    private void measureImport(File csv) throws IOException {
+        SharedPreferences checkpoints = RuntimeEnvironment.application
+                .getSharedPreferences("benchmark_import", Context.MODE_PRIVATE);
+        checkpoints.edit().clear().commit();
+
+        HeapSampler heap = new HeapSampler();
+        CsvContactReader reader = new CsvContactReader(
+                new InputStreamReader(new FileInputStream(csv), UTF_8));
+        long start = System.nanoTime();
+        long rows;
+        try {
+            rows = new ContactImporter(contentResolver, checkpoints)
+                    .importContacts(csv.getName(), reader, heap);
+        } finally {
+            reader.close();
+        }
+        long nanos = System.nanoTime() - start - heap.gcNanos;
+        heap.sample();
+
+        BenchmarkRunner.throughput("importCsv", datasetSize, rows, csv.length(), nanos);
+        BenchmarkRunner.memory("importHeapGrowth", datasetSize, heap.maxGrowth);
+        csv.delete();
+    }
+
+    // Накладные расходы ProviderMetrics: одни и те же операции с включенной
+    // и выключенной записью метрик. Бюджет - меньше 1% времени операции.
+    private void measureMetricsOverhead() throws Exception {
+        BenchmarkRunner.Operation firstPage = new BenchmarkRunner.Operation() {
+            @Override
+            public void run(int operations) {
+                for (int i = 0; i < operations; i++)
+                    consume(provider.query(Contact.buildPageUri(0, PAGE_SIZE),
+                            Contact.LIST_PROJECTION, null, null, null));
+            }
+        };
+        BenchmarkRunner.Operation singleFetch = new BenchmarkRunner.Operation() {
+            @Override
+            public void run(int operations) {
+                for (int i = 0; i < operations; i++)
+                    consume(provider.query(randomContactUri(), null, "1", null, null));
+            }
+        };
+
+        for (boolean enabled : new boolean[]{true, false}) {
+            provider.call(Contact.METHOD_SET_METRICS, String.valueOf(enabled), null);
+            String suffix = enabled ? "MetricsOn" : "MetricsOff";
+            BenchmarkRunner.measure("listFirstPage" + suffix, datasetSize, 1000, firstPage);
+            BenchmarkRunner.measure("singleFetch" + suffix, datasetSize, 1000, singleFetch);
+        }
+        provider.call(Contact.METHOD_SET_METRICS, "true", null);
+    }
+
+    // Поиск по мере ввода: каждое имя набирается по одной букве, и для каждого
+    // нажатия выполняется запрос первых совпадений, как в ContactSearchController
+    // без паузы ввода (худший случай - каждое нажатие доходит до запроса).
+    // Печатаются процентили задержки от нажатия до первых совпадений и до всего
+    // результата; P95 для 100 000 контактов - -Pbenchmark.sizes=100000.
+    private void measureSearchAsYouType() {
+        int keystrokes = 0;
+        for (String name : FIRST_NAMES)
+            keystrokes += name.length();
+
+        long[] firstResults = new long[keystrokes];
+        long[] allResults = new long[keystrokes];
+
+        // Первый проход прогревает запросы и не учитывается.
+        for (int pass = 0; pass < 2; pass++) {
+            int keystroke = 0;
+            for (String name : FIRST_NAMES) {
+                for (int length = 1; length <= name.length(); length++) {
+                    String query = name.substring(0, length);
+                    CancellationSignal signal = new CancellationSignal();
+
+                    long start = System.nanoTime();
+                    consume(provider.query(Contact.buildSearchUri(query, FIRST_RESULTS),
+                            Contact.LIST_PROJECTION, null, null, null, signal));
+                    firstResults[keystroke] = System.nanoTime() - start;
+                    consume(provider.query(Contact.buildSearchUri(query),
+                            Contact.LIST_PROJECTION, null, null, null, signal));
+                    allResults[keystroke++] = System.nanoTime() - start;
+                }
+            }
+        }
+
+        BenchmarkRunner.percentiles("searchAsYouTypeFirst", datasetSize, firstResults);
+        BenchmarkRunner.percentiles("searchAsYouTypeAll", datasetSize, allResults);
+    }
+
+    // Вставляет копии count случайных контактов с измененным регистром имени,
+    // как при повторном импорте из другого источника.
+    private void addDuplicates(int count) {
+        ContentValues[] copies = new ContentValues[count];
+
+        // Контакты, удаленные замером delete, пропускаются.
+        for (int i = 0; i < count; ) {
+            Cursor cursor = provider.query(randomContactUri(), Contact.ALL_COLUMNS,
+                    "1", null, null);
+            try {
+                if (!cursor.moveToFirst())
+                    continue;
+
+                copies[i] = new ContentValues();
+                for (int column = 1; column < Contact.ALL_COLUMNS.length; column++)
+                    copies[i].put(Contact.ALL_COLUMNS[column], cursor.getString(column));
+                copies[i++].put(Contact.COLUMN_NAME,
+                        cursor.getString(1).toUpperCase(Locale.ROOT));
+            } finally {
+                cursor.close();
+            }
+        }
+        provider.bulkInsert(Contact.CONTENT_URI, copies);
+    }
+
+    // Проход по всему отсортированному списку страницами по ключу (sort_key, _id).
+    private void scanByKeyset() {
+        Uri pageUri = Contact.buildPageUri(0, PAGE_SIZE);
+
+        while (pageUri != null) {
+            Cursor cursor = provider.query(pageUri, Contact.LIST_PROJECTION, null, null, null);
+            String lastKey = null;
+            long lastId = -1;
+            int rows = 0;
+
+            try {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(Contact.LIST_INDEX_ID);
+                    lastKey = cursor.getString(Contact.LIST_INDEX_SORT_KEY);
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+            pageUri = rows < PAGE_SIZE ? null :
+                    Contact.buildPageUri(lastKey, lastId, PAGE_SIZE);
+        }
+    }
+
+    // Чтение строки так, как фрагменты читали ее до ContactRecord.
+    private static String[] decodeByColumnIndex(Cursor cursor) {
+        String[] values = new String[Contact.ALL_COLUMNS.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = cursor.getString(cursor.getColumnIndex(Contact.ALL_COLUMNS[i]));
+        return values;
+    }
+
+    // Выполняет задачи главного потока, пока условие не выполнится. Без пауз,
+    // чтобы ожидание не добавляло к замеру время сна.
+    private static void await(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+        while (!condition.isMet()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError("Timed out");
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            ShadowLooper.runUiThreadTasks();
+        }
+    }
+
+    private static OutputStreamWriter openWriter(File file) throws IOException {
+        return new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+    }
+
+    // Читает все строки курсора, как это делает адаптер списка. getCount
+    // вызывается первым, как в ContentResolver.query.
+    private static void consume(Cursor cursor) {
+        try {
+            cursor.getCount();
+            while (cursor.moveToNext())
+                cursor.getString(1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Uri randomContactUri() {
+        return Contact.buildContactUri(1 + random.nextInt(datasetSize));
+    }
+
+    private String randomPhone() {
+        return "+7 9" + (10 + random.nextInt(90)) + " " + (100 + random.nextInt(900)) +
+                "-" + (10 + random.nextInt(90)) + "-" + (10 + random.nextInt(90));
+    }
+
+    private ContentValues randomContact() {
+        String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+        String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+
+        ContentValues values = new ContentValues();
+        values.put(Contact.COLUMN_NAME, firstName + " " + lastName + " " + random.nextInt(1000));
+        values.put(Contact.COLUMN_PHONE, randomPhone());
+        values.put(Contact.COLUMN_EMAIL, "user" + random.nextInt(1000000) + "@example.com");
+        values.put(Contact.COLUMN_STREET, random.nextInt(200) + " Main St");
+        values.put(Contact.COLUMN_CITY, CITIES[random.nextInt(CITIES.length)]);
+        values.put(Contact.COLUMN_STATE, "");
+        values.put(Contact.COLUMN_ZIP, String.valueOf(10000 + random.nextInt(90000)));
+        return values;
+    }
+
+    // Считает события списка.
+    private static final class PagerEvents implements ContactsPager.Callback {
+        int countChanges;
+        int updates;
+
+        @Override
+        public void onCountChanged() {
+            countChanges++;
+        }
+
+        @Override
+        public void onRangeLoaded(int start, int count) {
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            updates++;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            updates++;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            updates++;
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            updates++;
+        }
+    }
+
+    // Запоминает наибольший прирост кучи после сборки мусора относительно
+    // начала импорта и время, потраченное на сборки.
+    private static final class HeapSampler implements ContactImporter.ProgressListener {
+        private final Runtime runtime = Runtime.getRuntime();
+        private final long baseline;
+        private int batches;
+        long maxGrowth;
+        long gcNanos;
+
+        HeapSampler() {
+            System.gc();
+            baseline = usedHeap();
+        }
+
+        @Override
+        public void onProgress(long importedRecords) {
+            if (++batches % HEAP_SAMPLE_BATCHES == 0)
+                sample();
+        }
+
+        void sample() {
+            long start = System.nanoTime();
+            System.gc();
+            gcNanos += System.nanoTime() - start;
+            maxGrowth = Math.max(maxGrowth, usedHeap() - baseline);
+        }
+
+        private long usedHeap() {
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.omelchenkoaleks.addressbook.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.widget.FrameLayout;
+
+import com.omelchenkoaleks.addressbook.ContactsAdapter;
+import com.omelchenkoaleks.addressbook.ContactsPager;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Привязка строк списка через ContactsAdapter.onBindViewHolder: страницы
+ * читаются по постоянным индексам столбцов LIST_PROJECTION без getColumnIndex,
+ * а привязка загруженной страницы не выделяет память сверх того, что выделяет
+ * сам TextView при назначении текста.
+ * Тест находится в пакете data, потому что ContactPrefetcher создается
+ * конструктором этого пакета (см. MainThreadIoTest).
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ContactsAdapterBindTest {
+
+    // Две страницы списка.
+    private static final int CONTACTS = 2 * ContactsPager.PAGE_SIZE;
+
+    // Количество измеряемых проходов по странице.
+    private static final int PASSES = 5;
+
+    // Допустимая разница выделений за проход: меньше одного объекта Long
+    // или String на строку страницы.
+    private static final long SLACK_BYTES = ContactsPager.PAGE_SIZE * 8;
+
+    private static final long TIMEOUT_MS = 5000;
+
+    /**
+     * Провайдер, который считает вызовы getColumnIndex для курсоров страниц списка.
+     */
+    public static class CountingProvider extends AddressBookContentProvider {
+
+        static final AtomicInteger columnIndexCalls = new AtomicInteger();
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder,
+                            CancellationSignal cancellationSignal) {
+            Cursor cursor = super.query(uri, projection, selection, selectionArgs,
+                    sortOrder, cancellationSignal);
+            if (cursor == null || uri.getQueryParameter(Contact.PARAM_LIMIT) == null)
+                return cursor;
+
+            return new CursorWrapper(cursor) {
+                @Override
+                public int getColumnIndex(String columnName) {
+                    columnIndexCalls.incrementAndGet();
+                    return super.getColumnIndex(columnName);
+                }
+
+                @Override
+                public int getColumnIndexOrThrow(String columnName) {
+                    columnIndexCalls.incrementAndGet();
+                    return super.getColumnIndexOrThrow(columnName);
+                }
+            };
+        }
+    }
+
+    // Условие, которого ожидает await.
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private ContactPrefetcher prefetcher;
+    private ContactsAdapter adapter;
+    private ContactsAdapter.ViewHolder holder;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        Context context = RuntimeEnvironment.application;
+        context.deleteDatabase("AddressBook.db");
+        Robolectric.buildContentProvider(CountingProvider.class)
+                .create(DatabaseDescription.AUTHORITY);
+        ContentResolver contentResolver = context.getContentResolver();
+
+        ContentValues[] values = new ContentValues[CONTACTS];
+        for (int i = 0; i < CONTACTS; i++) {
+            values[i] = new ContentValues();
+            values[i].put(Contact.COLUMN_NAME, name(i));
+        }
+        contentResolver.bulkInsert(Contact.CONTENT_URI, values);
+        CountingProvider.columnIndexCalls.set(0);
+
+        prefetcher = new ContactPrefetcher(contentResolver);
+        adapter = new ContactsAdapter(contentResolver, null, prefetcher,
+                new ContactsAdapter.ContactClickListener() {
+                    @Override
+                    public void onClick(Uri contactUri) {
+                    }
+
+                    @Override
+                    public void onSelectionChanged(int selectedCount) {
+                    }
+                });
+        holder = adapter.onCreateViewHolder(new FrameLayout(context), 0);
+
+        adapter.refresh();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return adapter.getItemCount() == CONTACTS;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        adapter.close();
+    }
+
+    @Test
+    public void bindingPageDoesNotLookUpColumns() throws InterruptedException {
+        bindLoadedPage();
+
+        assertEquals(0, CountingProvider.columnIndexCalls.get());
+    }
+
+    @Test
+    public void bindingLoadedPageAllocatesOnlyForViews() throws InterruptedException {
+        Assume.assumeTrue(allocatedBytes() >= 0);
+        bindLoadedPage();
+
+        // Те же строки назначаются TextView напрямую: столько выделяет сам TextView.
+        String[] names = new String[ContactsPager.PAGE_SIZE];
+        for (int i = 0; i < names.length; i++)
+            names[i] = name(i);
+        setTexts(names);
+
+        long bindBytes = Long.MAX_VALUE;
+        long viewBytes = Long.MAX_VALUE;
+        for (int pass = 0; pass < PASSES; pass++) {
+            long start = allocatedBytes();
+            bindPage();
+            long middle = allocatedBytes();
+            setTexts(names);
+            long end = allocatedBytes();
+
+            bindBytes = Math.min(bindBytes, middle - start);
+            viewBytes = Math.min(viewBytes, end - middle);
+        }
+
+        assertTrue("bind " + bindBytes + " B, views " + viewBytes + " B",
+                bindBytes <= viewBytes + SLACK_BYTES);
+    }
+
+    // Привязывает первую страницу и ждет, пока она и записи ее контактов
+    // загрузятся: дальше привязка не обращается к базе данных.
+    private void bindLoadedPage() throws InterruptedException {
+        bindPage();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return holder.textView.getText().length() > 0;
+            }
+        });
+        bindPage();
+
+        for (int i = 0; i < ContactsPager.PAGE_SIZE; i++) {
+            // Контакты вставлены по порядку в новую таблицу: _id = позиция + 1.
+            final long id = i + 1;
+            await(new Condition() {
+                @Override
+                public boolean isMet() {
+                    return prefetcher.getContact(id) != null;
+                }
+            });
+        }
+    }
+
+    private void bindPage() {
+        for (int position = 0; position < ContactsPager.PAGE_SIZE; position++)
+            adapter.onBindViewHolder(holder, position);
+    }
+
+    private void setTexts(String[] names) {
+        for (String name : names) {
+            holder.textView.setText(name);
+            holder.itemView.setActivated(false);
+        }
+    }
+
+    private static String name(int position) {
+        return String.format("Contact %04d", position);
+    }
+
+    // Байты, выделенные текущим потоком, или -1, если JVM их не считает.
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    // Выполняет задачи главного потока, пока условие не выполнится.
+    private static void await(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+        while (!condition.isMet()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasks();
+        }
+    }
+}
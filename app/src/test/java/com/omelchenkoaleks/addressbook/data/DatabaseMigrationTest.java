@@ -0,0 +1,149 @@
+package com.omelchenkoaleks.addressbook.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Обновление базы данных с каждой старой версии до текущей.
+ * База данных создается в схеме версии 1, заполняется контактами и доводится
+ * до проверяемой версии шагами обновления; затем AddressBookDatabaseHelper
+ * открывает ее как базу данных, оставшуюся от старой версии приложения.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DatabaseMigrationTest {
+
+    private static final String DATABASE_NAME = "AddressBook.db";
+    private static final int CURRENT_VERSION = 8;
+
+    // Индексы, которые должны быть в базе данных текущей версии.
+    private static final String[] INDEXES = {"contacts_phone_idx", "contacts_email_idx",
+            "contacts_phone_key_idx", "contacts_deleted_idx", "contacts_sync_id_idx",
+            "contacts_sort_key_idx"};
+
+    // Контакты, которые записываются в базу данных версии 1:
+    // имя, телефон, почта, город.
+    private static final String[][] CONTACTS = {
+            {"Anna Petrova", "+7 (900) 123-45-67", "anna@example.com", "Moscow"},
+            {"Ivan Sidorov", "8 900 765 43 21", "ivan@example.com", "Kazan"},
+            {"Boris", null, null, "Moscow"},
+            {"Мария", "555-0100", "maria@example.com", null}
+    };
+
+    @Test
+    public void upgradeFromEachOlderVersionKeepsContactsAndIndexes() {
+        for (int version = 1; version < CURRENT_VERSION; version++) {
+            createDatabase(version);
+
+            SQLiteDatabase db = new AddressBookDatabaseHelper(RuntimeEnvironment.application)
+                    .getWritableDatabase();
+            try {
+                String message = "from version " + version;
+                assertEquals(message, CURRENT_VERSION, db.getVersion());
+                assertContacts(message, db);
+                assertIndexes(message, db);
+                assertSearchIndex(message, db);
+                assertSections(message, db);
+                assertEquals(message, CONTACTS.length,
+                        DatabaseUtils.queryNumEntries(db, Contact.CHANGES_TABLE_NAME));
+            } finally {
+                db.close();
+            }
+        }
+    }
+
+    // Создает базу данных версии version с контактами CONTACTS.
+    private static void createDatabase(int version) {
+        Context context = RuntimeEnvironment.application;
+        context.deleteDatabase(DATABASE_NAME);
+        File file = context.getDatabasePath(DATABASE_NAME);
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            // Схема версии 1.
+            db.execSQL("CREATE TABLE contacts(_id integer primary key, name TEXT, " +
+                    "phone TEXT, email TEXT, street TEXT, city TEXT, state TEXT, zip TEXT);");
+            for (String[] contact : CONTACTS) {
+                ContentValues values = new ContentValues();
+                values.put(Contact.COLUMN_NAME, contact[0]);
+                values.put(Contact.COLUMN_PHONE, contact[1]);
+                values.put(Contact.COLUMN_EMAIL, contact[2]);
+                values.put(Contact.COLUMN_CITY, contact[3]);
+                db.insertOrThrow(Contact.TABLE_NAME, null, values);
+            }
+
+            new AddressBookDatabaseHelper(context).onUpgrade(db, 1, version);
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    // Контакты сохранились, и производные столбцы вычислены.
+    private static void assertContacts(String message, SQLiteDatabase db) {
+        Cursor cursor = db.query(Contact.TABLE_NAME, new String[]{Contact.COLUMN_NAME,
+                        Contact.COLUMN_PHONE, Contact.COLUMN_EMAIL, Contact.COLUMN_CITY,
+                        Contact.COLUMN_PHONE_KEY, Contact.COLUMN_SYNC_ID,
+                        Contact.COLUMN_SECTION_KEY, Contact.COLUMN_DELETED_AT},
+                null, null, null, null, Contact._ID);
+        try {
+            assertEquals(message, CONTACTS.length, cursor.getCount());
+            for (String[] contact : CONTACTS) {
+                assertTrue(message, cursor.moveToNext());
+                for (int column = 0; column < contact.length; column++)
+                    assertEquals(message, contact[column], cursor.getString(column));
+                assertEquals(message, PhoneNumbers.normalize(contact[1]), cursor.getString(4));
+                assertNotNull(message, cursor.getString(5));
+                assertEquals(message, SortKeys.sectionForName(contact[0]), cursor.getString(6));
+                assertTrue(message, cursor.isNull(7));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertIndexes(String message, SQLiteDatabase db) {
+        for (String index : INDEXES)
+            assertTrue(message + ": " + index, indexExists(db, index));
+
+        // Заменен индексом sort_key в версии 7.
+        assertFalse(message, indexExists(db, "contacts_name_idx"));
+    }
+
+    private static boolean indexExists(SQLiteDatabase db, String name) {
+        return DatabaseUtils.queryNumEntries(db, "sqlite_master", "type = 'index' AND name = ?",
+                new String[]{name}) == 1;
+    }
+
+    // Полнотекстовый индекс содержит контакты, записанные до его создания.
+    private static void assertSearchIndex(String message, SQLiteDatabase db) {
+        assertEquals(message, 2, DatabaseUtils.queryNumEntries(db, Contact.SEARCH_TABLE_NAME,
+                Contact.SEARCH_TABLE_NAME + " MATCH ?", new String[]{"Moscow"}));
+        assertEquals(message, 1, DatabaseUtils.queryNumEntries(db, Contact.SEARCH_TABLE_NAME,
+                Contact.SEARCH_TABLE_NAME + " MATCH ?", new String[]{"ivan*"}));
+    }
+
+    // Счетчики разделов учитывают все контакты.
+    private static void assertSections(String message, SQLiteDatabase db) {
+        assertEquals(message, CONTACTS.length, DatabaseUtils.longForQuery(db,
+                "SELECT SUM(" + SortKeys.SECTIONS_COLUMN_COUNT + ") FROM " +
+                        SortKeys.SECTIONS_TABLE_NAME, null));
+    }
+}
@@ -0,0 +1,393 @@
+package com.omelchenkoaleks.addressbook.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Looper;
+
+import com.omelchenkoaleks.addressbook.ContactsPager;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Список, карточка и редактирование контакта не обращаются к базе данных
+ * и файлам в главном потоке.
+ * StrictMode под Robolectric не видит обращений SQLite к диску, поэтому
+ * провайдер сам запоминает вызовы из главного потока: все обращения к базе
+ * данных проходят через него.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MainThreadIoTest {
+
+    // Количество контактов - больше одной страницы списка.
+    private static final int CONTACTS = 120;
+
+    private static final long TIMEOUT_MS = 5000;
+
+    /**
+     * Провайдер, который запоминает первый вызов из главного потока.
+     */
+    public static class MainThreadCheckingProvider extends AddressBookContentProvider {
+
+        // Проверка включается после заполнения таблицы тестом.
+        static volatile boolean checking;
+
+        // Метод, вызванный в главном потоке, или null.
+        static volatile String mainThreadCall;
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder,
+                            CancellationSignal cancellationSignal) {
+            check("query " + uri);
+            return super.query(uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            check("insert " + uri);
+            return super.insert(uri, values);
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                          String[] selectionArgs) {
+            check("update " + uri);
+            return super.update(uri, values, selection, selectionArgs);
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            check("delete " + uri);
+            return super.delete(uri, selection, selectionArgs);
+        }
+
+        @Override
+        public Bundle call(String method, String arg, Bundle extras) {
+            check("call " + method);
+            return super.call(method, arg, extras);
+        }
+
+        private static void check(String operation) {
+            if (checking && mainThreadCall == null &&
+                    Thread.currentThread() == Looper.getMainLooper().getThread())
+                mainThreadCall = operation;
+        }
+    }
+
+    // Условие, которого ожидает await.
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private ContentResolver contentResolver;
+    private File snapshotFile;
+    private long firstId;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        context.deleteDatabase("AddressBook.db");
+        Robolectric.buildContentProvider(MainThreadCheckingProvider.class)
+                .create(DatabaseDescription.AUTHORITY);
+        contentResolver = context.getContentResolver();
+        snapshotFile = new File(context.getFilesDir(), "main_thread_test.snapshot");
+        snapshotFile.delete();
+
+        for (int i = 0; i < CONTACTS; i++) {
+            Uri uri = contentResolver.insert(Contact.CONTENT_URI,
+                    contact(String.format("Contact %03d", i)));
+            if (i == 0)
+                firstId = ContentUris.parseId(uri);
+        }
+
+        MainThreadCheckingProvider.mainThreadCall = null;
+        MainThreadCheckingProvider.checking = true;
+    }
+
+    @After
+    public void tearDown() {
+        MainThreadCheckingProvider.checking = false;
+    }
+
+    @Test
+    public void contactListLoadsOffMainThread() throws InterruptedException {
+        final RecordingCallback callback = new RecordingCallback();
+        final ContactsPager pager = new ContactsPager(contentResolver, snapshotFile, callback);
+
+        pager.refresh();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return callback.countChanges > 0;
+            }
+        });
+        assertEquals(CONTACTS, pager.getCount());
+
+        pager.loadAround(CONTACTS - 1);
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return callback.loadedRanges > 0;
+            }
+        });
+        assertNotNull(pager.getName(CONTACTS - 1));
+
+        // Второй список начинается со снимка, записанного первым, хотя refresh
+        // вызывается сразу после конструктора, как в ContactsAdapter: снимок
+        // отображается первым, затем результат обновления.
+        final RecordingCallback snapshotCallback = new RecordingCallback();
+        final ContactsPager snapshotPager =
+                new ContactsPager(contentResolver, snapshotFile, snapshotCallback);
+        snapshotPager.refresh();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return snapshotCallback.countChanges > 1;
+            }
+        });
+        assertEquals(2, snapshotCallback.countChanges);
+        assertEquals(CONTACTS, snapshotPager.getCount());
+        assertEquals("Contact 000", snapshotPager.getName(0));
+        pager.close();
+        snapshotPager.close();
+
+        assertNull(MainThreadCheckingProvider.mainThreadCall);
+    }
+
+    @Test
+    public void contactDetailLoadsOffMainThread() throws InterruptedException {
+        final ContactPrefetcher prefetcher = new ContactPrefetcher(contentResolver);
+
+        prefetcher.prefetch(firstId);
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return prefetcher.getContact(firstId) != null;
+            }
+        });
+        assertEquals("Contact 000", prefetcher.getContact(firstId).getName());
+
+        assertNull(MainThreadCheckingProvider.mainThreadCall);
+    }
+
+    @Test
+    public void contactEditsWriteOffMainThread() throws InterruptedException {
+        ContactWriteQueue writeQueue = new ContactWriteQueue(contentResolver,
+                new ContactPrefetcher(contentResolver));
+        final RecordingWrite insert = new RecordingWrite();
+        final RecordingWrite update = new RecordingWrite();
+        final RecordingWrite softDelete = new RecordingWrite();
+        final RecordingWrite restore = new RecordingWrite();
+        final RecordingWrite delete = new RecordingWrite();
+
+        writeQueue.insert(contact("Anna"), insert);
+        await(insert);
+        assertNotNull(insert.contactUri);
+
+        ContentValues values = new ContentValues();
+        values.put(Contact.COLUMN_NAME, "Anna Petrova");
+        writeQueue.update(insert.contactUri, values, update);
+        long id = ContentUris.parseId(insert.contactUri);
+        writeQueue.delete(new long[]{id}, softDelete);
+        writeQueue.restore(new long[]{id}, restore);
+        writeQueue.delete(insert.contactUri, delete);
+        await(delete);
+
+        assertEquals(1, update.affectedRows);
+        assertEquals(1, softDelete.affectedRows);
+        assertEquals(1, restore.affectedRows);
+        assertEquals(1, delete.affectedRows);
+
+        assertNull(MainThreadCheckingProvider.mainThreadCall);
+    }
+
+    @Test
+    public void updateAfterDeleteIsNotMergedIntoEarlierUpdate() throws InterruptedException {
+        ContactWriteQueue writeQueue = new ContactWriteQueue(contentResolver,
+                new ContactPrefetcher(contentResolver));
+        Uri contactUri = Contact.buildContactUri(firstId);
+        RecordingWrite first = new RecordingWrite();
+        RecordingWrite second = new RecordingWrite();
+
+        ContentValues values = new ContentValues();
+        values.put(Contact.COLUMN_NAME, "Before delete");
+        writeQueue.update(contactUri, values, first);
+        writeQueue.delete(contactUri, null);
+        values = new ContentValues();
+        values.put(Contact.COLUMN_NAME, "After delete");
+        writeQueue.update(contactUri, values, second);
+        await(second);
+
+        // Второе обновление выполняется после удаления и не находит контакт.
+        assertEquals(1, first.affectedRows);
+        assertEquals(0, second.affectedRows);
+    }
+
+    @Test
+    public void writesDropPrefetchedRecordBeforeCallback() throws InterruptedException {
+        final ContactPrefetcher prefetcher = new ContactPrefetcher(contentResolver);
+        ContactWriteQueue writeQueue = new ContactWriteQueue(contentResolver, prefetcher);
+        Uri contactUri = Contact.buildContactUri(firstId);
+
+        // Оповещение об изменении приходит позже результата записи, поэтому
+        // запись должна исчезнуть из кеша уже к вызову Callback.
+        final boolean[] cachedAtCallback = new boolean[2];
+        RecordingWrite update = new RecordingWrite() {
+            @Override
+            public void onWriteCompleted(Uri contactUri, int affectedRows) {
+                cachedAtCallback[0] = prefetcher.getContact(firstId) != null;
+                super.onWriteCompleted(contactUri, affectedRows);
+            }
+        };
+        RecordingWrite delete = new RecordingWrite() {
+            @Override
+            public void onWriteCompleted(Uri contactUri, int affectedRows) {
+                cachedAtCallback[1] = prefetcher.getContact(firstId) != null;
+                super.onWriteCompleted(contactUri, affectedRows);
+            }
+        };
+
+        prefetchFirst(prefetcher);
+        ContentValues values = new ContentValues();
+        values.put(Contact.COLUMN_NAME, "Renamed");
+        writeQueue.update(contactUri, values, update);
+        await(update);
+        assertFalse(cachedAtCallback[0]);
+
+        prefetchFirst(prefetcher);
+        assertEquals("Renamed", prefetcher.getContact(firstId).getName());
+        writeQueue.delete(new long[]{firstId}, delete);
+        await(delete);
+        assertFalse(cachedAtCallback[1]);
+    }
+
+    @Test
+    public void purgeOfDeletedIdsDoesNotWaitForUndoWindow() throws InterruptedException {
+        ContactWriteQueue writeQueue = new ContactWriteQueue(contentResolver,
+                new ContactPrefetcher(contentResolver));
+        long[] ids = {firstId, firstId + 1};
+        RecordingWrite restore = new RecordingWrite();
+
+        // Второй контакт восстановлен до закрытия предложения отменить удаление.
+        writeQueue.delete(ids, null);
+        writeQueue.restore(new long[]{firstId + 1}, null);
+        writeQueue.purge(ids);
+        writeQueue.restore(ids, restore);
+        await(restore);
+
+        // Первый контакт удален окончательно сразу, восстанавливать нечего;
+        // второй не удален.
+        assertEquals(0, restore.affectedRows);
+        Cursor cursor = contentResolver.query(Contact.buildContactUri(firstId + 1),
+                Contact.ALL_COLUMNS, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Загружает запись первого контакта в кеш.
+    private void prefetchFirst(final ContactPrefetcher prefetcher) throws InterruptedException {
+        prefetcher.prefetch(firstId);
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return prefetcher.getContact(firstId) != null;
+            }
+        });
+    }
+
+    // Выполняет задачи главного потока, пока условие не выполнится.
+    private static void await(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+        while (!condition.isMet()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasks();
+        }
+    }
+
+    private static ContentValues contact(String name) {
+        ContentValues values = new ContentValues();
+        values.put(Contact.COLUMN_NAME, name);
+        values.put(Contact.COLUMN_PHONE, "+7 912 345-67-89");
+        return values;
+    }
+
+    // Считает события списка.
+    private static final class RecordingCallback implements ContactsPager.Callback {
+        int countChanges;
+        int loadedRanges;
+
+        @Override
+        public void onCountChanged() {
+            countChanges++;
+        }
+
+        @Override
+        public void onRangeLoaded(int start, int count) {
+            loadedRanges++;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+        }
+    }
+
+    // Запоминает результат одного изменения.
+    private static class RecordingWrite implements ContactWriteQueue.Callback, Condition {
+        boolean completed;
+        Uri contactUri;
+        int affectedRows = -1;
+
+        @Override
+        public void onWriteCompleted(Uri contactUri, int affectedRows) {
+            completed = true;
+            this.contactUri = contactUri;
+            this.affectedRows = affectedRows;
+        }
+
+        @Override
+        public boolean isMet() {
+            return completed;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.omelchenkoaleks.addressbook.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Планы запросов списка и поиска: EXPLAIN QUERY PLAN для текста запроса,
+ * который выполняет AddressBookContentProvider.
+ * Страницы списка идут по индексу sort_key без сортировки во временном
+ * B-дереве; поиск находит контакты через полнотекстовый индекс и читает их
+ * по _id без прохода по таблице contacts. Поиск по телефону и почте идет
+ * по их индексам.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryPlanTest {
+
+    private static final String SORT_KEY_INDEX = "USING INDEX contacts_sort_key_idx";
+
+    // Контактов больше, чем на одной странице.
+    private static final int CONTACTS = 200;
+    private static final int PAGE_SIZE = 50;
+
+    private ContentResolver contentResolver;
+
+    // Текст последнего запроса к contacts и база данных, в которой он выполнен.
+    private String lastSql;
+    private SQLiteDatabase lastDatabase;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        context.deleteDatabase("AddressBook.db");
+        AddressBookContentProvider provider =
+                Robolectric.buildContentProvider(AddressBookContentProvider.class)
+                        .create(DatabaseDescription.AUTHORITY).get();
+        contentResolver = context.getContentResolver();
+
+        provider.queryCursorFactory = new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver,
+                                    String editTable, SQLiteQuery query) {
+                // SQLiteQuery.toString() - "SQLiteQuery: " и текст запроса.
+                String text = query.toString();
+                lastSql = text.substring(text.indexOf(':') + 1).trim();
+                lastDatabase = db;
+                return new SQLiteCursor(driver, editTable, query);
+            }
+        };
+
+        ContentValues[] values = new ContentValues[CONTACTS];
+        for (int i = 0; i < CONTACTS; i++) {
+            values[i] = new ContentValues();
+            values[i].put(Contact.COLUMN_NAME, (i % 2 == 0 ? "Anna " : "Ivan ") + i);
+            values[i].put(Contact.COLUMN_CITY, i % 3 == 0 ? "Moscow" : "Kazan");
+        }
+        contentResolver.bulkInsert(Contact.CONTENT_URI, values);
+    }
+
+    @Test
+    public void firstPageScansSortKeyIndex() {
+        List<String> plan = explain(Contact.buildPageUri(0, PAGE_SIZE));
+
+        assertUses(plan, SORT_KEY_INDEX);
+        assertNoTempBTree(plan);
+        assertNoContactsScan(plan);
+    }
+
+    @Test
+    public void keysetPageSearchesSortKeyIndex() {
+        Cursor firstPage = contentResolver.query(Contact.buildPageUri(0, PAGE_SIZE),
+                Contact.LIST_PROJECTION, null, null, null);
+        assertNotNull(firstPage);
+        String lastKey;
+        long lastId;
+        try {
+            assertTrue(firstPage.moveToLast());
+            lastKey = firstPage.getString(Contact.LIST_INDEX_SORT_KEY);
+            lastId = firstPage.getLong(Contact.LIST_INDEX_ID);
+        } finally {
+            firstPage.close();
+        }
+
+        List<String> plan = explain(Contact.buildPageUri(lastKey, lastId, PAGE_SIZE));
+
+        assertUses(plan, SORT_KEY_INDEX);
+        assertNoTempBTree(plan);
+        assertNoContactsScan(plan);
+    }
+
+    @Test
+    public void pageBeforeKeySearchesSortKeyIndex() {
+        Cursor lastPage = contentResolver.query(Contact.buildPageUri(CONTACTS - PAGE_SIZE,
+                PAGE_SIZE), Contact.LIST_PROJECTION, null, null, null);
+        assertNotNull(lastPage);
+        String firstKey;
+        long firstId;
+        try {
+            assertTrue(lastPage.moveToFirst());
+            firstKey = lastPage.getString(Contact.LIST_INDEX_SORT_KEY);
+            firstId = lastPage.getLong(Contact.LIST_INDEX_ID);
+        } finally {
+            lastPage.close();
+        }
+
+        // Индекс проходится в обратном порядке, поэтому сортировки тоже нет.
+        List<String> plan = explain(Contact.buildPageBeforeUri(firstKey, firstId, PAGE_SIZE));
+
+        assertUses(plan, SORT_KEY_INDEX);
+        assertNoTempBTree(plan);
+        assertNoContactsScan(plan);
+    }
+
+    @Test
+    public void phoneLookupSearchesPhoneKeyIndex() {
+        List<String> plan = explain(Contact.buildPhoneLookupUri("+7 (900) 123-45-67"));
+
+        assertUses(plan, "USING INDEX contacts_phone_key_idx");
+        assertNoContactsScan(plan);
+    }
+
+    @Test
+    public void emailLookupSearchesEmailIndex() {
+        List<String> plan = explain(Contact.CONTENT_URI, Contact.COLUMN_EMAIL + " = ?",
+                new String[]{"anna@example.com"});
+
+        assertUses(plan, "USING INDEX contacts_email_idx");
+        assertNoContactsScan(plan);
+    }
+
+    @Test
+    public void searchUsesFullTextIndex() {
+        assertSearchPlan(explain(Contact.buildSearchUri("ann", 30)));
+        assertSearchPlan(explain(Contact.buildSearchUri("ann mos")));
+    }
+
+    private static void assertSearchPlan(List<String> plan) {
+        assertUses(plan, "VIRTUAL TABLE INDEX");
+        assertUses(plan, "USING INTEGER PRIMARY KEY");
+        assertNoContactsScan(plan);
+
+        // Совпадения по имени идут первыми, поэтому порядок результата не
+        // совпадает ни с одним индексом: сортируются только найденные строки,
+        // и других временных B-деревьев нет.
+        for (String step : plan) {
+            if (step.contains("TEMP B-TREE"))
+                assertTrue(step, step.contains("FOR ORDER BY"));
+        }
+    }
+
+    // Выполняет запрос через провайдер и возвращает шаги плана его текста.
+    private List<String> explain(Uri uri) {
+        return explain(uri, null, null);
+    }
+
+    private List<String> explain(Uri uri, String selection, String[] selectionArgs) {
+        lastSql = null;
+        Cursor cursor = contentResolver.query(uri, Contact.LIST_PROJECTION, selection,
+                selectionArgs, null);
+        assertNotNull(cursor);
+        cursor.close();
+        assertNotNull(uri.toString(), lastSql);
+
+        List<String> plan = new ArrayList<>();
+        Cursor explain = lastDatabase.rawQuery("EXPLAIN QUERY PLAN " + lastSql,
+                selectionArgs);
+        try {
+            int detail = explain.getColumnIndexOrThrow("detail");
+            while (explain.moveToNext())
+                plan.add(explain.getString(detail));
+        } finally {
+            explain.close();
+        }
+        return plan;
+    }
+
+    private static void assertUses(List<String> plan, String step) {
+        for (String line : plan) {
+            if (line.contains(step))
+                return;
+        }
+        throw new AssertionError("Expected " + step + " in " + plan);
+    }
+
+    private static void assertNoTempBTree(List<String> plan) {
+        for (String step : plan)
+            assertFalse(plan.toString(), step.contains("TEMP B-TREE"));
+    }
+
+    // Таблица contacts не читается целиком без индекса. Старые версии SQLite
+    // пишут "SCAN TABLE contacts", новые - "SCAN contacts".
+    private static void assertNoContactsScan(List<String> plan) {
+        for (String step : plan) {
+            String normalized = step.replace("TABLE ", "");
+            boolean contactsScan = normalized.startsWith("SCAN contacts") &&
+                    !normalized.startsWith("SCAN contacts_");
+            assertFalse(plan.toString(), contactsScan && !step.contains("USING"));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.omelchenkoaleks.addressbook.sync;
+
+import android.content.ContentValues;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Сервер синхронизации в памяти: хранит все принятые изменения по порядку,
+ * версия изменения - его номер в списке, начиная с 1.
+ */
+class FakeSyncServer implements SyncServer {
+
+    final List<ContentValues> log = new ArrayList<>();
+
+    // Количество изменений, принятых через push.
+    int pushedChanges;
+
+    // Выполняется перед каждым pull, то есть между отправкой и загрузкой.
+    Runnable beforePull;
+
+    @Override
+    public void push(List<ContentValues> changes) {
+        for (ContentValues change : changes)
+            log.add(new ContentValues(change));
+        pushedChanges += changes.size();
+    }
+
+    @Override
+    public Changes pull(long since, int limit) {
+        if (beforePull != null)
+            beforePull.run();
+
+        int end = (int) Math.min(log.size(), since + limit);
+        List<ContentValues> changes = new ArrayList<>();
+        for (int i = (int) since; i < end; i++)
+            changes.add(new ContentValues(log.get(i)));
+        return new Changes(changes, end);
+    }
+
+    // Изменение, сделанное другим клиентом.
+    void addRemoteChange(ContentValues change) {
+        log.add(new ContentValues(change));
+    }
+}
@@ -0,0 +1,200 @@
+package com.omelchenkoaleks.addressbook.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.omelchenkoaleks.addressbook.data.AddressBookContentProvider;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Синхронизация AddressBookContentProvider с FakeSyncServer под Robolectric.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SyncEngineTest {
+
+    private ContentResolver contentResolver;
+    private FakeSyncServer server;
+    private SyncEngine engine;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        context.deleteDatabase("AddressBook.db");
+        Robolectric.buildContentProvider(AddressBookContentProvider.class)
+                .create(DatabaseDescription.AUTHORITY);
+
+        SharedPreferences state =
+                context.getSharedPreferences("sync_test", Context.MODE_PRIVATE);
+        state.edit().clear().commit();
+
+        contentResolver = context.getContentResolver();
+        server = new FakeSyncServer();
+        engine = new SyncEngine(contentResolver, state, server);
+    }
+
+    @Test
+    public void changesSinceVersionReturnOnlyLaterChanges() {
+        Uri first = contentResolver.insert(Contact.CONTENT_URI, contact("Anna"));
+        contentResolver.insert(Contact.CONTENT_URI, contact("Ivan"));
+        long version = lastVersion(0);
+
+        ContentValues values = new ContentValues();
+        values.put(Contact.COLUMN_NAME, "Anna Petrova");
+        contentResolver.update(first, values, null, null);
+
+        Cursor changes = contentResolver.query(Contact.buildChangesUri(version, 100),
+                null, null, null, null);
+        try {
+            assertEquals(1, changes.getCount());
+            assertTrue(changes.moveToFirst());
+            assertEquals("Anna Petrova", changes.getString(Contact.CHANGE_INDEX_FIRST_DATA));
+            assertEquals(0, changes.getInt(Contact.CHANGE_INDEX_DELETED));
+        } finally {
+            changes.close();
+        }
+
+        contentResolver.delete(first, null, null);
+        changes = contentResolver.query(Contact.buildChangesUri(version, 100),
+                null, null, null, null);
+        try {
+            assertEquals(1, changes.getCount());
+            assertTrue(changes.moveToFirst());
+            assertEquals(1, changes.getInt(Contact.CHANGE_INDEX_DELETED));
+        } finally {
+            changes.close();
+        }
+    }
+
+    @Test
+    public void localChangesArePushedOnce() throws Exception {
+        contentResolver.insert(Contact.CONTENT_URI, contact("Anna"));
+        contentResolver.insert(Contact.CONTENT_URI, contact("Ivan"));
+
+        engine.sync();
+        assertEquals(2, server.pushedChanges);
+
+        // Изменения, полученные обратно с сервера, не отправляются повторно.
+        engine.sync();
+        assertEquals(2, server.pushedChanges);
+    }
+
+    @Test
+    public void remoteChangesAreApplied() throws Exception {
+        ContentValues remote = contact("Remote");
+        remote.put(Contact.COLUMN_SYNC_ID, "remote-1");
+        remote.put(Contact.CHANGE_COLUMN_DELETED, false);
+        server.addRemoteChange(remote);
+
+        engine.sync();
+        assertTrue(hasContact("Remote"));
+        assertEquals(0, server.pushedChanges);
+
+        remote.put(Contact.CHANGE_COLUMN_DELETED, true);
+        server.addRemoteChange(remote);
+
+        engine.sync();
+        assertFalse(hasContact("Remote"));
+        assertEquals(0, server.pushedChanges);
+    }
+
+    @Test
+    public void editBetweenPushAndPullIsNotOverwrittenByEcho() throws Exception {
+        final Uri anna = contentResolver.insert(Contact.CONTENT_URI, contact("Anna"));
+        server.beforePull = new Runnable() {
+            @Override
+            public void run() {
+                server.beforePull = null;
+                ContentValues values = new ContentValues();
+                values.put(Contact.COLUMN_NAME, "Anna Petrova");
+                contentResolver.update(anna, values, null, null);
+            }
+        };
+
+        // Отправлено "Anna", с сервера вернулось то же изменение.
+        engine.sync();
+        assertTrue(hasContact("Anna Petrova"));
+        assertEquals(1, server.pushedChanges);
+
+        // Изменение, сделанное после отправки, отправляется следующей синхронизацией.
+        engine.sync();
+        assertTrue(hasContact("Anna Petrova"));
+        assertEquals(2, server.pushedChanges);
+        assertEquals("Anna Petrova",
+                server.log.get(server.log.size() - 1).getAsString(Contact.COLUMN_NAME));
+    }
+
+    @Test
+    public void remoteChangeDoesNotOverwriteUnconfirmedLocalChange() throws Exception {
+        Uri anna = contentResolver.insert(Contact.CONTENT_URI, contact("Anna"));
+        engine.sync();
+        String syncId = server.log.get(0).getAsString(Contact.COLUMN_SYNC_ID);
+
+        // Другой клиент изменил контакт раньше, чем сервер получил локальное изменение.
+        ContentValues remote = contact("Anna Remote");
+        remote.put(Contact.COLUMN_SYNC_ID, syncId);
+        remote.put(Contact.CHANGE_COLUMN_DELETED, false);
+        server.addRemoteChange(remote);
+
+        ContentValues values = new ContentValues();
+        values.put(Contact.COLUMN_NAME, "Anna Local");
+        contentResolver.update(anna, values, null, null);
+
+        // Последнее изменение на сервере - локальное, и клиент с ним совпадает.
+        engine.sync();
+        assertTrue(hasContact("Anna Local"));
+        assertFalse(hasContact("Anna Remote"));
+        assertEquals("Anna Local",
+                server.log.get(server.log.size() - 1).getAsString(Contact.COLUMN_NAME));
+
+        // После подтверждения изменения других клиентов снова применяются.
+        remote.put(Contact.COLUMN_NAME, "Anna Remote");
+        server.addRemoteChange(remote);
+        engine.sync();
+        assertTrue(hasContact("Anna Remote"));
+    }
+
+    private boolean hasContact(String name) {
+        Cursor cursor = contentResolver.query(Contact.CONTENT_URI, Contact.LIST_PROJECTION,
+                Contact.COLUMN_NAME + "=?", new String[]{name}, null);
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Версия последнего изменения после since.
+    private long lastVersion(long since) {
+        Cursor changes = contentResolver.query(Contact.buildChangesUri(since, 1000),
+                null, null, null, null);
+        try {
+            return changes.moveToLast() ?
+                    changes.getLong(Contact.CHANGE_INDEX_VERSION) : since;
+        } finally {
+            changes.close();
+        }
+    }
+
+    private static ContentValues contact(String name) {
+        ContentValues values = new ContentValues();
+        values.put(Contact.COLUMN_NAME, name);
+        values.put(Contact.COLUMN_PHONE, "+7 912 345-67-89");
+        return values;
+    }
+}
@@ -0,0 +1,131 @@
+package com.omelchenkoaleks.addressbook.transfer;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+
+import com.omelchenkoaleks.addressbook.data.AddressBookContentProvider;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Импорт контактов пакетами и возобновление прерванного импорта
+ * с контрольной точки.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ContactImporterTest {
+
+    private static final String SOURCE = "contacts.csv";
+
+    // Два полных пакета и неполный третий.
+    private static final int RECORDS = 2 * ContactImporter.BATCH_SIZE + 500;
+
+    private ContentResolver contentResolver;
+    private SharedPreferences checkpoints;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        context.deleteDatabase("AddressBook.db");
+        Robolectric.buildContentProvider(AddressBookContentProvider.class)
+                .create(DatabaseDescription.AUTHORITY);
+        contentResolver = context.getContentResolver();
+
+        checkpoints = context.getSharedPreferences("import_test", Context.MODE_PRIVATE);
+        checkpoints.edit().clear().commit();
+    }
+
+    @Test
+    public void importsAllRecordsInBatches() throws IOException {
+        ContactImporter importer = new ContactImporter(contentResolver, checkpoints);
+
+        assertEquals(RECORDS, importer.importContacts(SOURCE, new GeneratedReader(-1), null));
+        assertEquals(RECORDS, countContacts());
+        assertFalse(checkpoints.contains(SOURCE));
+    }
+
+    @Test
+    public void resumesFromCheckpointAfterFailure() throws IOException {
+        ContactImporter importer = new ContactImporter(contentResolver, checkpoints);
+
+        // Чтение обрывается в третьем пакете: первые два уже зафиксированы.
+        int failAt = 2 * ContactImporter.BATCH_SIZE + 200;
+        try {
+            importer.importContacts(SOURCE, new GeneratedReader(failAt), null);
+            fail("Import should have failed");
+        } catch (IOException expected) {
+            // Сбой чтения файла.
+        }
+        assertEquals(2 * ContactImporter.BATCH_SIZE, checkpoints.getLong(SOURCE, 0));
+        assertEquals(2 * ContactImporter.BATCH_SIZE, countContacts());
+
+        // Повторный запуск пропускает сохраненные записи и не создает дубликатов.
+        assertEquals(RECORDS, importer.importContacts(SOURCE, new GeneratedReader(-1), null));
+        assertEquals(RECORDS, countContacts());
+        assertEquals(1, countContacts(Contact.COLUMN_NAME + " = ?", name(0)));
+        assertEquals(1, countContacts(Contact.COLUMN_NAME + " = ?", name(RECORDS - 1)));
+        assertFalse(checkpoints.contains(SOURCE));
+    }
+
+    private int countContacts() {
+        return countContacts(null);
+    }
+
+    private int countContacts(String selection, String... selectionArgs) {
+        Cursor cursor = contentResolver.query(Contact.CONTENT_URI, new String[]{Contact._ID},
+                selection, selectionArgs.length > 0 ? selectionArgs : null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String name(int record) {
+        return "Contact " + record;
+    }
+
+    // Источник из RECORDS записей, чтение которого обрывается на записи failAt
+    // (-1 - без сбоя).
+    private static final class GeneratedReader implements ContactReader {
+        private final int failAt;
+        private int next;
+
+        GeneratedReader(int failAt) {
+            this.failAt = failAt;
+        }
+
+        @Override
+        public ContentValues next() throws IOException {
+            if (next == failAt)
+                throw new IOException("Read error at record " + next);
+            if (next == RECORDS)
+                return null;
+
+            ContentValues values = new ContentValues();
+            values.put(Contact.COLUMN_NAME, name(next));
+            values.put(Contact.COLUMN_PHONE, "+7 900 " + next);
+            next++;
+            return values;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.omelchenkoaleks.addressbook.transfer;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+
+import com.omelchenkoaleks.addressbook.data.ContactRecord;
+import com.omelchenkoaleks.addressbook.data.DatabaseDescription.Contact;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Разбор файлов CSV и vCard и обратное чтение файлов, записанных
+ * CsvContactWriter и VCardContactWriter.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ContactTransferTest {
+
+    // Значения, которые требуют кавычек в CSV и экранирования в vCard.
+    private static final String[][] CONTACTS = {
+            {"1", "Петрова, Анна \"Аня\"", "+7 912 345-67-89", "anna@example.com",
+                    "ул. Ленина, д. 1;\nкв. 2", "Москва", "МО", "101000"},
+            {"2", "Back\\slash", null, "", null, "Kazan", null, null},
+            {"3", null, "+7 900 000-00-00", null, null, null, null, null},
+    };
+
+    @Test
+    public void csvRoundTripKeepsSpecialCharactersAndNulls() throws IOException {
+        StringWriter output = new StringWriter();
+        CsvContactWriter writer = new CsvContactWriter(output);
+        for (String[] contact : CONTACTS)
+            writer.write(record(contact));
+        writer.close();
+
+        CsvContactReader reader = new CsvContactReader(new StringReader(output.toString()));
+        for (String[] contact : CONTACTS)
+            assertContact(contact, reader.next());
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void csvReaderParsesQuotedFields() throws IOException {
+        CsvContactReader reader = new CsvContactReader(new StringReader(
+                "Name,Phone,Unknown,City,Email\r\n" +
+                        "\"Smith, John\",,x,\"Line 1\nLine 2\",\"\"\r\n" +
+                        "\r\n" +
+                        "\"Say \"\"hi\"\"\",123\r\n"));
+
+        ContentValues first = reader.next();
+        assertEquals("Smith, John", first.getAsString(Contact.COLUMN_NAME));
+        assertTrue(first.containsKey(Contact.COLUMN_PHONE));
+        assertNull(first.getAsString(Contact.COLUMN_PHONE));
+        assertEquals("Line 1\nLine 2", first.getAsString(Contact.COLUMN_CITY));
+        assertEquals("", first.getAsString(Contact.COLUMN_EMAIL));
+        assertFalse(first.containsKey("unknown"));
+
+        // Пустая строка пропускается.
+        ContentValues second = reader.next();
+        assertEquals("Say \"hi\"", second.getAsString(Contact.COLUMN_NAME));
+        assertEquals("123", second.getAsString(Contact.COLUMN_PHONE));
+        assertFalse(second.containsKey(Contact.COLUMN_CITY));
+
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void vCardRoundTripKeepsEscapedCharacters() throws IOException {
+        StringWriter output = new StringWriter();
+        VCardContactWriter writer = new VCardContactWriter(output);
+        for (String[] contact : CONTACTS)
+            writer.write(record(contact));
+        writer.close();
+
+        VCardContactReader reader = new VCardContactReader(new StringReader(output.toString()));
+        for (String[] contact : CONTACTS) {
+            // vCard не различает пустую почту и ее отсутствие.
+            String[] expected = contact.clone();
+            if ("".equals(expected[3]))
+                expected[3] = null;
+            assertContact(expected, reader.next());
+        }
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void vCardReaderUnfoldsLinesAndUnescapesValues() throws IOException {
+        VCardContactReader reader = new VCardContactReader(new StringReader(
+                "BEGIN:VCARD\r\n" +
+                        "VERSION:3.0\r\n" +
+                        "FN:Anna\\, the \\;first\\; of\r\n" +
+                        "  her name\r\n" +
+                        "item1.TEL;TYPE=CELL:+7 912\r\n" +
+                        "\t345-67-89\r\n" +
+                        "TEL:+7 000\r\n" +
+                        "ADR;TYPE=HOME:;;Main St\\n2nd floor;Springfield;;12345;\r\n" +
+                        "END:VCARD\r\n"));
+
+        ContentValues values = reader.next();
+        assertEquals("Anna, the ;first; of her name", values.getAsString(Contact.COLUMN_NAME));
+        assertEquals("+7 912345-67-89", values.getAsString(Contact.COLUMN_PHONE));
+        assertEquals("Main St\n2nd floor", values.getAsString(Contact.COLUMN_STREET));
+        assertEquals("Springfield", values.getAsString(Contact.COLUMN_CITY));
+        assertNull(values.getAsString(Contact.COLUMN_STATE));
+        assertEquals("12345", values.getAsString(Contact.COLUMN_ZIP));
+
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void vCardReaderBuildsNameFromN() throws IOException {
+        VCardContactReader reader = new VCardContactReader(new StringReader(
+                "BEGIN:VCARD\r\n" +
+                        "VERSION:2.1\r\n" +
+                        "N:Petrova;Anna;Ivanovna;;\r\n" +
+                        "END:VCARD\r\n" +
+                        "BEGIN:VCARD\r\n" +
+                        "VERSION:4.0\r\n" +
+                        "N:O\\;Brien\\\\;Pat;;;\r\n" +
+                        "END:VCARD\r\n"));
+
+        assertEquals("Anna Ivanovna Petrova",
+                reader.next().getAsString(Contact.COLUMN_NAME));
+        // Экранированная точка с запятой - часть фамилии, "\\;" - обратная
+        // косая черта в конце фамилии и разделитель.
+        assertEquals("Pat O;Brien\\", reader.next().getAsString(Contact.COLUMN_NAME));
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    // Запись контакта со значениями в порядке Contact.ALL_COLUMNS.
+    private static ContactRecord record(String[] values) {
+        MatrixCursor cursor = new MatrixCursor(Contact.ALL_COLUMNS);
+        cursor.addRow(values);
+        cursor.moveToFirst();
+        return ContactRecord.fromCursor(cursor);
+    }
+
+    // Значения прочитанной записи совпадают с записанными (кроме _id).
+    private static void assertContact(String[] expected, ContentValues actual) {
+        for (int i = 1; i < Contact.ALL_COLUMNS.length; i++)
+            assertEquals(Contact.ALL_COLUMNS[i], expected[i],
+                    actual.getAsString(Contact.ALL_COLUMNS[i]));
+    }
+}